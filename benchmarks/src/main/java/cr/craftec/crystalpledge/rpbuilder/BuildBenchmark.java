@@ -0,0 +1,85 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole builds of a synthetic pack, the way the builder runs them: from scratch, for release, after changing
+ * a single model, and of several variants at once. Nothing is copied to the .minecraft folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildBenchmark {
+    private static final PrintStream NO_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+
+    @Param({"1000", "4000"})
+    public int models;
+
+    private Path directory;
+    private Path variantDirectory;
+    private int edits;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("rpbuilder-benchmark");
+        new SyntheticPack(models, models*5, models/64+1, models).generate(directory);
+        ResourcePackBuilder.run(directory, List.of("--no-install"), NO_OUTPUT);
+
+        variantDirectory = Files.createTempDirectory("rpbuilder-benchmark");
+        new SyntheticPack(models, models*5, models/64+1, models).generate(variantDirectory);
+        Path configFile = variantDirectory.resolve("config.json");
+        JsonObject config = PackJson.parse(Files.readAllBytes(configFile));
+        config.add("variants", JsonParser.parseString("[{\"output\": \"Synthetic.zip\"},"
+                +"{\"output\": \"Synthetic-Lite.zip\", \"layers\": [\"main\", \"negative_space\", \"bonus_mushroom_blocks\", \"assets\"]},"
+                +"{\"output\": \"Synthetic-Old.zip\", \"pack_format\": 8},"
+                +"{\"output\": \"Synthetic-Silent.zip\", \"exclude\": [\"assets/*/sounds/**\"]}]"));
+        Files.write(configFile, PackJson.write(config));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        for (Path root : List.of(directory, variantDirectory)) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) { Files.delete(path); }
+            }
+        }
+    }
+
+    @Benchmark
+    public void fullBuild() throws IOException { ResourcePackBuilder.run(directory, List.of("--clean", "--no-install"), NO_OUTPUT); }
+
+    /** Includes optimizing PNG files, which after the first iteration all come from the cache */
+    @Benchmark
+    public void releaseBuild() throws IOException {
+        ResourcePackBuilder.run(directory, List.of("--clean", "--release", "--no-install"), NO_OUTPUT);
+    }
+
+    @Benchmark
+    public void incrementalBuild() throws IOException {
+        String model = "{\"parent\": \"minecraft:item/generated\", \"textures\": {\"layer0\": \"synthetic:item/texture_"+edits++%2+"\"}}";
+        Files.write(directory.resolve("assets/synthetic/models/item/model_0.json"), model.getBytes(StandardCharsets.UTF_8));
+        ResourcePackBuilder.run(directory, List.of("--no-install"), NO_OUTPUT);
+    }
+
+    /** Four variants of the pack from scratch, to compare with four times {@link #fullBuild} */
+    @Benchmark
+    public void variantBuild() throws IOException {
+        ResourcePackBuilder.run(variantDirectory, List.of("--clean", "--no-install"), NO_OUTPUT);
+    }
+}
@@ -0,0 +1,185 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each JSON merge type, merging a file into the result of previous merges of the same size without any conflicts,
+ * finding every character of a font's providers and indexing the characters of two fonts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+    /** Sound events, atlas sources and model overrides in each file, ten times as many lang keys and a tenth as many font providers */
+    @Param({"100", "1000"})
+    public int size;
+
+    private final LangMerge langMerge = new LangMerge();
+    private final FontMerge fontMerge = new FontMerge();
+    private final SoundsMerge soundsMerge = new SoundsMerge();
+    private final AtlasMerge atlasMerge = new AtlasMerge();
+    private final ItemModelMerge itemModelMerge = new ItemModelMerge();
+
+    private JsonObject langMaster;
+    private JsonObject langSource;
+    private JsonObject fontMaster;
+    private JsonObject fontSource;
+    private JsonObject soundsMaster;
+    private JsonObject soundsSource;
+    private JsonObject atlasMaster;
+    private JsonObject atlasSource;
+    private JsonObject itemModelMaster;
+    private JsonObject itemModelSource;
+    private JsonObject master;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        langMaster = createLang(0);
+        langSource = createLang(size*10);
+        fontMaster = createFont(0xE000, size/10+1);
+        fontSource = createFont(0xE000+(size/10+1)*256, size/10+1);
+        soundsMaster = createSounds(0);
+        soundsSource = createSounds(size);
+        atlasMaster = createAtlas(0);
+        atlasSource = createAtlas(size);
+        itemModelMaster = createItemModel(0);
+        itemModelSource = createItemModel(size);
+    }
+
+    @Benchmark
+    public JsonObject lang() {
+        langMerge.merge("assets/minecraft/lang/en_us.json", master, langSource);
+        return master;
+    }
+
+    @Benchmark
+    public JsonObject font() {
+        fontMerge.merge("assets/minecraft/font/default.json", master, fontSource);
+        return master;
+    }
+
+    @Benchmark
+    public JsonObject sounds() {
+        soundsMerge.merge("assets/minecraft/sounds.json", master, soundsSource);
+        return master;
+    }
+
+    @Benchmark
+    public JsonObject atlas() {
+        atlasMerge.merge("assets/minecraft/atlases/blocks.json", master, atlasSource);
+        return master;
+    }
+
+    @Benchmark
+    public JsonObject itemModel() {
+        itemModelMerge.merge("assets/minecraft/models/item/stick.json", master, itemModelSource);
+        return master;
+    }
+
+    @Benchmark
+    public void fontChars(Blackhole blackhole) {
+        for (JsonElement provider : fontMaster.getAsJsonArray("providers")) { FontMerge.forEachChar(provider.getAsJsonObject(), blackhole::consume); }
+    }
+
+    @Benchmark
+    public GlyphMap glyphMap() {
+        GlyphMap glyphs = new GlyphMap();
+        glyphs.add("assets/minecraft/font/default.json", fontMaster);
+        glyphs.add("assets/synthetic/font/default.json", fontSource);
+        return glyphs;
+    }
+
+    /**
+     * Merges modify the master, so every merge gets a fresh copy of the one of its type.
+     */
+    @Setup(Level.Invocation)
+    public void copyMaster(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        switch (benchmark.substring(benchmark.lastIndexOf('.')+1)) {
+            case "lang": master = langMaster.deepCopy(); break;
+            case "font": master = fontMaster.deepCopy(); break;
+            case "sounds": master = soundsMaster.deepCopy(); break;
+            case "atlas": master = atlasMaster.deepCopy(); break;
+            case "itemModel": master = itemModelMaster.deepCopy(); break;
+            default: master = null;
+        }
+    }
+
+    private JsonObject createLang(int first) {
+        JsonObject lang = new JsonObject();
+        for (int i = first; i < first+size*10; i++) { lang.addProperty("item.synthetic.key_"+i, "Synthetic text number "+i); }
+        return lang;
+    }
+
+    private static JsonObject createFont(int firstChar, int providerCount) {
+        JsonArray providers = new JsonArray();
+        int character = firstChar;
+        for (int i = 0; i < providerCount; i++) {
+            JsonObject provider = new JsonObject();
+            provider.addProperty("type", "bitmap");
+            provider.addProperty("file", "synthetic:font/glyphs_"+i+".png");
+            JsonArray chars = new JsonArray();
+            for (int row = 0; row < 16; row++) {
+                StringBuilder line = new StringBuilder();
+                for (int column = 0; column < 16; column++) { line.appendCodePoint(character++); }
+                chars.add(line.toString());
+            }
+            provider.add("chars", chars);
+            providers.add(provider);
+        }
+        JsonObject font = new JsonObject();
+        font.add("providers", providers);
+        return font;
+    }
+
+    private JsonObject createSounds(int first) {
+        JsonObject sounds = new JsonObject();
+        for (int i = first; i < first+size; i++) {
+            JsonObject event = new JsonObject();
+            JsonArray eventSounds = new JsonArray();
+            eventSounds.add("synthetic:sound_"+i);
+            event.add("sounds", eventSounds);
+            sounds.add("synthetic.event_"+i, event);
+        }
+        return sounds;
+    }
+
+    private JsonObject createAtlas(int first) {
+        JsonArray sources = new JsonArray();
+        for (int i = first; i < first+size; i++) {
+            JsonObject source = new JsonObject();
+            source.addProperty("type", "single");
+            source.addProperty("resource", "synthetic:block/texture_"+i);
+            sources.add(source);
+        }
+        JsonObject atlas = new JsonObject();
+        atlas.add("sources", sources);
+        return atlas;
+    }
+
+    private JsonObject createItemModel(int first) {
+        JsonArray overrides = new JsonArray();
+        for (int i = first; i < first+size; i++) {
+            JsonObject predicate = new JsonObject();
+            predicate.addProperty("custom_model_data", i+1);
+            JsonObject override = new JsonObject();
+            override.add("predicate", predicate);
+            override.addProperty("model", "synthetic:item/model_"+i);
+            overrides.add(override);
+        }
+        JsonObject model = new JsonObject();
+        model.addProperty("parent", "minecraft:item/generated");
+        model.add("overrides", overrides);
+        return model;
+    }
+}
@@ -0,0 +1,237 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a resource pack laid out like the real one, with the main files, an assets folder and the three library
+ * zips, in configurable amounts. Every file type that goes through a merge is present in more than one layer.
+ * The contents only depend on the sizes, so packs generated with the same sizes always compare.
+ */
+public class SyntheticPack {
+    private static final String NAMESPACE = "synthetic";
+    private static final int SOUND_FILES = 16;
+    private static final int GLYPH_TEXTURES = 8;
+
+    private final int models;
+    private final int langKeys;
+    private final int fontProviders;
+    private final int libraryEntries;
+
+    /**
+     * @param models Item models in the assets folder, each with a custom_model_data override
+     * @param langKeys Keys of the lang file
+     * @param fontProviders Bitmap providers of 256 characters in the assets folder's font
+     * @param libraryEntries Models and textures in the Vanilla Tweaks zip
+     */
+    public SyntheticPack(int models, int langKeys, int fontProviders, int libraryEntries) {
+        this.models = models;
+        this.langKeys = langKeys;
+        this.fontProviders = fontProviders;
+        this.libraryEntries = libraryEntries;
+    }
+
+    /**
+     * Writes the pack into the given directory, next to its config.json.
+     */
+    public void generate(Path directory) throws IOException {
+        Random random = new Random(0);
+        JsonObject config = new JsonObject();
+        config.add("warning_suppressions", new JsonObject());
+        config.addProperty("vanilla_tweaks", "lib/VanillaTweaks.zip");
+        config.addProperty("negative_space", "lib/NegativeSpaceFont.zip");
+        config.addProperty("bonus_mushroom_blocks", "lib/BONUS Mushroom Blocks.zip");
+        config.addProperty("workers", 0);
+        write(directory, "config.json", PackJson.write(config));
+        write(directory, "LICENSE.txt", "Synthetic pack for benchmarks".getBytes(StandardCharsets.UTF_8));
+        write(directory, "pack.mcmeta", "{\"pack\": {\"pack_format\": 9, \"description\": \"Synthetic\"}}".getBytes(StandardCharsets.UTF_8));
+        write(directory, "pack.png", png(random, 64));
+
+        // Assets
+        int textures = Math.max(1, models/8);
+        JsonArray overrides = new JsonArray();
+        for (int i = 0; i < models; i++) {
+            write(directory, "assets/"+NAMESPACE+"/models/item/model_"+i+".json", PackJson.write(itemModel(NAMESPACE+":item/texture_"+i%textures)));
+            overrides.add(override(i+1, NAMESPACE+":item/model_"+i));
+        }
+        for (int i = 0; i < textures; i++) { write(directory, "assets/"+NAMESPACE+"/textures/item/texture_"+i+".png", png(random, 16)); }
+        JsonObject stick = itemModel("minecraft:item/stick");
+        stick.add("overrides", overrides);
+        write(directory, "assets/minecraft/models/item/stick.json", PackJson.write(stick));
+
+        JsonObject lang = new JsonObject();
+        JsonArray langs = new JsonArray();
+        for (String langName : new String[]{"en_us", "en_gb", "en_ca"}) { langs.add(langName); }
+        lang.add("langs", langs);
+        for (int i = 0; i < langKeys; i++) { lang.addProperty("item."+NAMESPACE+".key_"+i, "Synthetic text number "+i+" §r§7with formatting"); }
+        write(directory, "assets/minecraft/lang/en_us.json", PackJson.write(lang));
+
+        write(directory, "assets/minecraft/font/default.json", PackJson.write(font(0xE000, fontProviders)));
+        for (int i = 0; i < GLYPH_TEXTURES; i++) { write(directory, "assets/"+NAMESPACE+"/textures/font/glyphs_"+i+".png", png(random, 128)); }
+
+        JsonObject sounds = new JsonObject();
+        for (int i = 0; i < Math.max(1, models/4); i++) { sounds.add(NAMESPACE+".event_"+i, soundEvent(NAMESPACE+":sound_"+i%SOUND_FILES)); }
+        write(directory, "assets/"+NAMESPACE+"/sounds.json", PackJson.write(sounds));
+        write(directory, "assets/minecraft/sounds.json", PackJson.write(sounds));
+        for (int i = 0; i < SOUND_FILES; i++) { write(directory, "assets/"+NAMESPACE+"/sounds/sound_"+i+".ogg", bytes(random, 8192)); }
+
+        write(directory, "assets/minecraft/atlases/blocks.json", PackJson.write(atlas(NAMESPACE)));
+
+        // Libraries
+        Files.createDirectories(directory.resolve("lib"));
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(directory.resolve("lib/VanillaTweaks.zip")))) {
+            for (int i = 0; i < libraryEntries; i++) {
+                if (i%2 == 0) {
+                    JsonObject model = new JsonObject();
+                    model.addProperty("parent", "minecraft:block/cube_all");
+                    JsonObject modelTextures = new JsonObject();
+                    modelTextures.addProperty("all", "minecraft:block/tweak_"+(i+1));
+                    model.add("textures", modelTextures);
+                    addEntry(zip, "assets/minecraft/models/block/tweak_"+i+".json", PackJson.write(model));
+                } else {
+                    addEntry(zip, "assets/minecraft/textures/block/tweak_"+i+".png", png(random, 16));
+                }
+            }
+            JsonObject libraryStick = itemModel("minecraft:item/stick");
+            JsonArray libraryOverrides = new JsonArray();
+            for (int i = 0; i < Math.min(models, 16); i++) { libraryOverrides.add(override(models+i+1, "minecraft:block/tweak_"+i*2)); }
+            libraryStick.add("overrides", libraryOverrides);
+            addEntry(zip, "assets/minecraft/models/item/stick.json", PackJson.write(libraryStick));
+            JsonObject librarySounds = new JsonObject();
+            for (int i = 0; i < 16; i++) { librarySounds.add("ambient.tweak_"+i, soundEvent("minecraft:ambient/tweak_"+i)); }
+            addEntry(zip, "assets/minecraft/sounds.json", PackJson.write(librarySounds));
+        }
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(directory.resolve("lib/NegativeSpaceFont.zip")))) {
+            addEntry(zip, "LICENSE.txt", "Synthetic negative space font".getBytes(StandardCharsets.UTF_8));
+            addEntry(zip, "assets/minecraft/font/default.json", PackJson.write(font(0xF000, 8)));
+            for (int i = 0; i < GLYPH_TEXTURES; i++) { addEntry(zip, "assets/space/textures/font/glyphs_"+i+".png", png(random, 128)); }
+        }
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(directory.resolve("lib/BONUS Mushroom Blocks.zip")))) {
+            addEntry(zip, "pack.mcmeta", "{\"pack\": {\"pack_format\": 9, \"description\": \"Bonus\"}}".getBytes(StandardCharsets.UTF_8));
+            addEntry(zip, "assets/minecraft/atlases/blocks.json", PackJson.write(atlas("bonus")));
+            for (int i = 0; i < 64; i++) { addEntry(zip, "assets/minecraft/textures/block/lapisdemon/bonus/mushroomblocks/"+i+".png", png(random, 16)); }
+        }
+    }
+
+    private static JsonObject itemModel(String texture) {
+        JsonObject model = new JsonObject();
+        model.addProperty("parent", "minecraft:item/generated");
+        JsonObject textures = new JsonObject();
+        textures.addProperty("layer0", texture);
+        model.add("textures", textures);
+        return model;
+    }
+
+    private static JsonObject override(int customModelData, String model) {
+        JsonObject predicate = new JsonObject();
+        predicate.addProperty("custom_model_data", customModelData);
+        JsonObject override = new JsonObject();
+        override.add("predicate", predicate);
+        override.addProperty("model", model);
+        return override;
+    }
+
+    /**
+     * @return A font of bitmap providers with 16 rows of 16 characters each, starting from the given code point
+     */
+    private static JsonObject font(int firstChar, int providerCount) {
+        JsonArray providers = new JsonArray();
+        int character = firstChar;
+        for (int i = 0; i < providerCount; i++) {
+            JsonObject provider = new JsonObject();
+            provider.addProperty("type", "bitmap");
+            provider.addProperty("file", (firstChar == 0xE000 ? NAMESPACE : "space")+":font/glyphs_"+i%GLYPH_TEXTURES+".png");
+            provider.addProperty("ascent", 7);
+            provider.addProperty("height", 8);
+            JsonArray chars = new JsonArray();
+            for (int row = 0; row < 16; row++) {
+                StringBuilder line = new StringBuilder();
+                for (int column = 0; column < 16; column++) { line.appendCodePoint(character++); }
+                chars.add(line.toString());
+            }
+            provider.add("chars", chars);
+            providers.add(provider);
+        }
+        JsonObject font = new JsonObject();
+        font.add("providers", providers);
+        return font;
+    }
+
+    private static JsonObject soundEvent(String sound) {
+        JsonObject event = new JsonObject();
+        JsonArray sounds = new JsonArray();
+        sounds.add(sound);
+        event.add("sounds", sounds);
+        return event;
+    }
+
+    private static JsonObject atlas(String directory) {
+        JsonObject source = new JsonObject();
+        source.addProperty("type", "directory");
+        source.addProperty("source", directory);
+        source.addProperty("prefix", directory+'/');
+        JsonArray sources = new JsonArray();
+        sources.add(source);
+        JsonObject atlas = new JsonObject();
+        atlas.add("sources", sources);
+        return atlas;
+    }
+
+    /**
+     * @return A square RGBA image of random pixels from a small palette, so that it compresses like a real texture
+     */
+    private static byte[] png(Random random, int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        int[] palette = new int[8];
+        for (int i = 0; i < palette.length; i++) { palette[i] = 0xFF000000 | random.nextInt(0x1000000); }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) { image.setRGB(x, y, palette[random.nextInt(palette.length)]); }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void write(Path directory, String path, byte[] bytes) throws IOException {
+        Path file = directory.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, byte[] bytes) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(bytes);
+        zip.closeEntry();
+    }
+
+    /**
+     * Generates a pack to look at or build by hand.
+     * Arguments: directory, then optionally models, lang keys, font providers and library entries.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: SyntheticPack <directory> [models] [lang keys] [font providers] [library entries]");
+            return;
+        }
+        int[] sizes = {4000, 20000, 64, 4000};
+        for (int i = 1; i < args.length && i <= sizes.length; i++) { sizes[i-1] = Integer.parseInt(args[i]); }
+        new SyntheticPack(sizes[0], sizes[1], sizes[2], sizes[3]).generate(Path.of(args[0]));
+    }
+}
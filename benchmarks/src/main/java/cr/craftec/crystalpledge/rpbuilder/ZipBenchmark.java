@@ -0,0 +1,74 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Writing zips of model-like JSON files and texture-like binary files, either compressing every entry or copying
+ * entries that were already compressed, as is done for library files and files unchanged since the previous build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipBenchmark {
+    private static final long DOS_TIME = PackZipEntry.toDosTime(LocalDateTime.of(2020, 1, 1, 0, 0));
+
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<byte[]> files = new ArrayList<>();
+    private final List<PackZipWriter.CompressedEntry> compressed = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(0);
+        for (int i = 0; i < entries; i++) {
+            byte[] bytes;
+            if (i%2 == 0) {
+                names.add("assets/synthetic/models/item/model_"+i+".json");
+                bytes = ("{\n  \"parent\": \"minecraft:item/generated\",\n  \"textures\": {\n    \"layer0\": \"synthetic:item/texture_"+i+"\"\n  }\n}")
+                        .getBytes(StandardCharsets.UTF_8);
+            } else {
+                names.add("assets/synthetic/textures/item/texture_"+i+".png");
+                bytes = new byte[256+random.nextInt(2048)];
+                random.nextBytes(bytes);
+            }
+            files.add(bytes);
+            compressed.add(PackZipWriter.compress(names.get(i), bytes, Deflater.DEFAULT_COMPRESSION, DOS_TIME));
+        }
+    }
+
+    @Benchmark
+    public String compressAndWrite() throws IOException {
+        PackZipWriter out = new PackZipWriter(OutputStream.nullOutputStream());
+        try (out) {
+            for (int i = 0; i < entries; i++) {
+                PackZipWriter.CompressedEntry entry = PackZipWriter.compress(names.get(i), files.get(i), Deflater.DEFAULT_COMPRESSION, DOS_TIME);
+                out.writeRaw(entry.getEntry(), entry.getData());
+            }
+        }
+        return out.getSha1();
+    }
+
+    @Benchmark
+    public String writeRaw() throws IOException {
+        PackZipWriter out = new PackZipWriter(OutputStream.nullOutputStream());
+        try (out) {
+            for (PackZipWriter.CompressedEntry entry : compressed) { out.writeRaw(entry.getEntry(), entry.getData()); }
+        }
+        return out.getSha1();
+    }
+}
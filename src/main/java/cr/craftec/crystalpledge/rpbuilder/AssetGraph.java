@@ -0,0 +1,296 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Index of the references between the files of the pack: blockstates to models, models to their parents, overrides
+ * and textures, fonts to bitmaps and other fonts, sounds.json to sound files, particles and atlases to textures.
+ * Targets are kept as pack paths, with directories (referenced by atlases) ending in '/' and relative to the
+ * namespace folder, since they apply to every namespace.
+ */
+public class AssetGraph {
+    private final Map<String,List<String>> references = new LinkedHashMap<>();
+
+    /**
+     * Adds a file of the pack.
+     * @param targets Paths the file references
+     */
+    public void put(String path, List<String> targets) { references.put(path, targets); }
+
+    public void remove(String path) { references.remove(path); }
+
+    public boolean contains(String path) { return references.containsKey(path); }
+
+    /** @return Every file of the pack and the paths it references, in the order they were added */
+    public Map<String,List<String>> getReferences() { return references; }
+
+    /** @return Files referencing each path */
+    public Map<String,List<String>> getReferrers() {
+        Map<String,List<String>> referrers = new HashMap<>();
+        for (Map.Entry<String,List<String>> entry : references.entrySet()) {
+            for (String target : entry.getValue()) { referrers.computeIfAbsent(target, key -> new ArrayList<>()).add(entry.getKey()); }
+        }
+        return referrers;
+    }
+
+    /**
+     * @return Whether the game only loads the file when something else in the pack references it: models, textures
+     *         and sounds outside the minecraft namespace, which can't be replacing vanilla ones
+     */
+    public static boolean isPrunable(String path) {
+        String[] parts = path.split("/", 4);
+        if (parts.length < 4 || !parts[0].equals("assets") || parts[1].equals("minecraft")) { return false; }
+        return parts[2].equals("models") || parts[2].equals("textures") || parts[2].equals("sounds");
+    }
+
+    /**
+     * @return Whether a missing target would be an error, rather than a file the game already has
+     */
+    public static boolean isChecked(String target) { return !target.endsWith("/") && !target.startsWith("assets/minecraft/"); }
+
+    /**
+     * @return Kind of warning to report when the target is missing
+     */
+    public static WarningType getMissingWarning(String target) {
+        String[] parts = target.split("/", 4);
+        switch (parts.length < 4 ? "" : parts[2]) {
+            case "models": return WarningType.MODEL;
+            case "textures": return WarningType.TEXTURE;
+            case "sounds": return WarningType.SOUND_FILE;
+            case "font": return WarningType.FONT;
+            default: return WarningType.MISSING;
+        }
+    }
+
+    /**
+     * @return Every prunable file that can't be reached by following references from the rest of the pack
+     */
+    public Set<String> findUnreachable() {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String path : references.keySet()) {
+            if (!isPrunable(path)) { queue.add(path); }
+        }
+        while (!queue.isEmpty()) {
+            String path = queue.poll();
+            if (!references.containsKey(path) || !reachable.add(path)) { continue; }
+            queue.add(path+".mcmeta");
+            for (String target : references.get(path)) {
+                if (!target.endsWith("/")) {
+                    queue.add(target);
+                    continue;
+                }
+                for (String listed : references.keySet()) {
+                    if (isInDirectory(listed, target)) { queue.add(listed); }
+                }
+            }
+        }
+        Set<String> unreachable = new LinkedHashSet<>();
+        for (String path : references.keySet()) {
+            if (isPrunable(path) && !reachable.contains(path)) { unreachable.add(path); }
+        }
+        return unreachable;
+    }
+
+    /**
+     * @return Whether the file is in a directory referenced by an atlas, so that it could be used by name alone
+     */
+    public boolean isListed(String path) {
+        for (List<String> targets : references.values()) {
+            for (String target : targets) {
+                if (target.endsWith("/") && isInDirectory(path, target)) { return true; }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInDirectory(String path, String directory) {
+        String[] parts = path.split("/", 3);
+        return parts.length == 3 && parts[0].equals("assets") && parts[2].startsWith(directory);
+    }
+
+    /**
+     * @return Whether the file at the given path can reference others
+     */
+    public static boolean hasReferences(String path) {
+        String[] parts = path.split("/");
+        if (parts.length < 3 || !parts[0].equals("assets") || !path.endsWith(".json")) { return false; }
+        if (parts.length == 3) { return parts[2].equals("sounds.json"); }
+        switch (parts[2]) {
+            case "blockstates": case "models": case "font": case "particles": case "atlases": return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * @return References made by the file at the given path
+     */
+    public static List<Reference> findReferences(String path, JsonObject json) {
+        List<Reference> found = new ArrayList<>();
+        String type = path.split("/")[2];
+        if (type.equals("sounds.json")) {
+            for (Map.Entry<String,JsonElement> event : json.entrySet()) {
+                JsonArray sounds = getArray(event.getValue(), "sounds");
+                for (int i = 0; i < sounds.size(); i++) {
+                    JsonElement sound = sounds.get(i);
+                    if (sound.isJsonObject() && "event".equals(getString(sound, "type"))) { continue; }
+                    if (sound.isJsonPrimitive()) {
+                        addReference(found, sounds, i, "sounds/", ".ogg");
+                    } else if (sound.isJsonObject()) {
+                        addReference(found, sound.getAsJsonObject(), "name", "sounds/", ".ogg");
+                    }
+                }
+            }
+            return found;
+        }
+        switch (type) {
+            case "blockstates":
+                JsonElement variants = json.get("variants");
+                if (variants != null && variants.isJsonObject()) {
+                    for (Map.Entry<String,JsonElement> variant : variants.getAsJsonObject().entrySet()) { addModels(found, variant.getValue()); }
+                }
+                for (JsonElement part : getArray(json, "multipart")) {
+                    if (part.isJsonObject()) { addModels(found, part.getAsJsonObject().get("apply")); }
+                }
+                break;
+            case "models":
+                String parent = getString(json, "parent");
+                if (parent != null && !parent.startsWith("builtin/") && !parent.startsWith("minecraft:builtin/")) {
+                    addReference(found, json, "parent", "models/", ".json");
+                }
+                JsonElement textures = json.get("textures");
+                if (textures != null && textures.isJsonObject()) {
+                    for (String key : textures.getAsJsonObject().keySet()) {
+                        String texture = getString(textures, key);
+                        if (texture != null && !texture.startsWith("#")) { addReference(found, textures.getAsJsonObject(), key, "textures/", ".png"); }
+                    }
+                }
+                for (JsonElement override : getArray(json, "overrides")) {
+                    if (override.isJsonObject()) { addReference(found, override.getAsJsonObject(), "model", "models/", ".json"); }
+                }
+                break;
+            case "font":
+                for (JsonElement provider : getArray(json, "providers")) {
+                    if (!provider.isJsonObject()) { continue; }
+                    String providerType = getString(provider, "type");
+                    if ("bitmap".equals(providerType)) {
+                        addReference(found, provider.getAsJsonObject(), "file", "textures/", "");
+                    } else if ("ttf".equals(providerType)) {
+                        addReference(found, provider.getAsJsonObject(), "file", "font/", "");
+                    } else if ("reference".equals(providerType)) {
+                        addReference(found, provider.getAsJsonObject(), "id", "font/", ".json");
+                    }
+                }
+                break;
+            case "particles":
+                JsonArray particleTextures = getArray(json, "textures");
+                for (int i = 0; i < particleTextures.size(); i++) { addReference(found, particleTextures, i, "textures/particle/", ".png"); }
+                break;
+            case "atlases":
+                for (JsonElement source : getArray(json, "sources")) {
+                    if (!source.isJsonObject()) { continue; }
+                    String sourceType = getString(source, "type");
+                    if ("single".equals(sourceType)) {
+                        addReference(found, source.getAsJsonObject(), "resource", "textures/", ".png");
+                    } else if ("directory".equals(sourceType) && getString(source, "source") != null) {
+                        found.add(new Reference("textures/"+getString(source, "source")+'/', null, null, null));
+                    }
+                }
+                break;
+        }
+        return found;
+    }
+
+    /**
+     * @return Paths referenced by the given references
+     */
+    public static List<String> getTargets(List<Reference> references) {
+        List<String> targets = new ArrayList<>(references.size());
+        for (Reference reference : references) { targets.add(reference.getTarget()); }
+        return targets;
+    }
+
+    private static void addModels(List<Reference> found, JsonElement variant) {
+        if (variant == null) { return; }
+        if (variant.isJsonObject()) {
+            addReference(found, variant.getAsJsonObject(), "model", "models/", ".json");
+        } else if (variant.isJsonArray()) {
+            for (JsonElement model : variant.getAsJsonArray()) { addModels(found, model); }
+        }
+    }
+
+    private static void addReference(List<Reference> found, JsonObject object, String key, String root, String extension) {
+        String location = getString(object, key);
+        if (location != null) { found.add(new Reference(resolve(location, root, extension), root, extension, value -> object.addProperty(key, value))); }
+    }
+
+    private static void addReference(List<Reference> found, JsonArray array, int index, String root, String extension) {
+        JsonElement element = array.get(index);
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            found.add(new Reference(resolve(element.getAsString(), root, extension), root, extension, value -> array.set(index, new JsonPrimitive(value))));
+        }
+    }
+
+    /**
+     * @param root Directory the location is relative to within its namespace
+     * @param extension Extension the location is written without
+     */
+    private static String resolve(String location, String root, String extension) {
+        int colon = location.indexOf(':');
+        String namespace = colon < 0 ? "minecraft" : location.substring(0, colon);
+        return "assets/"+namespace+'/'+root+location.substring(colon+1)+extension;
+    }
+
+    private static String getString(JsonElement element, String key) {
+        JsonElement value = element.isJsonObject() ? element.getAsJsonObject().get(key) : null;
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isString() ? value.getAsString() : null;
+    }
+
+    private static JsonArray getArray(JsonElement element, String key) {
+        JsonElement value = element.isJsonObject() ? element.getAsJsonObject().get(key) : null;
+        return value != null && value.isJsonArray() ? value.getAsJsonArray() : new JsonArray();
+    }
+
+    /**
+     * A location written in a JSON file, which can be changed to point to another file.
+     */
+    public static class Reference {
+        private final String target;
+        private final String root;
+        private final String extension;
+        private final Consumer<String> setter;
+
+        private Reference(String target, String root, String extension, Consumer<String> setter) {
+            this.target = target;
+            this.root = root;
+            this.extension = extension;
+            this.setter = setter;
+        }
+
+        /** @return Path of the referenced file, or of the directory relative to each namespace folder */
+        public String getTarget() { return target; }
+
+        /**
+         * Changes the location in the JSON file to point to another file.
+         * @return Whether the path can be written as a location in this place, otherwise nothing is changed
+         */
+        public boolean retarget(String path) {
+            if (!canRetarget(path)) { return false; }
+            String[] parts = path.split("/", 3);
+            setter.accept(parts[1]+':'+parts[2].substring(root.length(), parts[2].length()-extension.length()));
+            return true;
+        }
+
+        /** @return Whether {@link #retarget} would succeed for the given path */
+        public boolean canRetarget(String path) {
+            String[] parts = path.split("/", 3);
+            return setter != null && parts.length == 3 && parts[0].equals("assets") && parts[2].startsWith(root) && parts[2].endsWith(extension);
+        }
+    }
+}
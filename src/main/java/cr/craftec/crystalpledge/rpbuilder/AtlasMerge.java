@@ -0,0 +1,21 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Merges the sources of texture atlas files, skipping sources that are already listed.
+ */
+public class AtlasMerge extends JsonMerge {
+    public AtlasMerge() { super("assets/*/atlases/*.json"); }
+
+    @Override
+    public void merge(String path, JsonObject master, JsonObject source) {
+        JsonArray masterSources = master.getAsJsonArray("sources");
+        if (masterSources == null) { master.add("sources", masterSources = new JsonArray()); }
+        for (JsonElement atlasSource : source.getAsJsonArray("sources")) {
+            if (!masterSources.contains(atlasSource)) { masterSources.add(atlasSource); }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Record of a previous build: the state of every input file and which sources produced every file in the pack.
+ * Used to only process what changed since then.
+ */
+public class BuildManifest {
+    private static final int VERSION = 4;
+
+    private final Map<String,InputState> inputs = new LinkedHashMap<>();
+    private final Map<String,Output> outputs = new LinkedHashMap<>();
+    private String install;
+    private boolean release;
+    private long zipSize;
+    private long zipModified;
+    private String zipSha1;
+
+    public Map<String,InputState> getInputs() { return inputs; }
+
+    /** @return Every file in the pack, in archive order */
+    public Map<String,Output> getOutputs() { return outputs; }
+
+    /** @return Resource pack folder the build was copied to, or null if it wasn't */
+    public String getInstall() { return install; }
+
+    public void setInstall(String install) { this.install = install; }
+
+    /** @return Whether the build was made with release settings */
+    public boolean isRelease() { return release; }
+
+    public void setRelease(boolean release) { this.release = release; }
+
+    /** @return SHA-1 of the built zip */
+    public String getZipSha1() { return zipSha1; }
+
+    public void setZipSha1(String zipSha1) { this.zipSha1 = zipSha1; }
+
+    /** @return Whether the zip at the given path is still the one this manifest describes */
+    public boolean matchesZip(Path zip) throws IOException {
+        return Files.exists(zip) && Files.size(zip) == zipSize && Files.getLastModifiedTime(zip).toMillis() == zipModified;
+    }
+
+    public void setZip(Path zip) throws IOException {
+        zipSize = Files.size(zip);
+        zipModified = Files.getLastModifiedTime(zip).toMillis();
+    }
+
+    /**
+     * @return The manifest saved at the given path, or null if there is none or it was saved by another builder version
+     */
+    public static BuildManifest load(Path path) throws IOException {
+        JsonObject json;
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            json = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IllegalStateException | JsonParseException e) {
+            return null;
+        }
+        if (!json.has("version") || json.get("version").getAsInt() != VERSION) { return null; }
+
+        BuildManifest manifest = new BuildManifest();
+        JsonElement install = json.get("install");
+        manifest.install = install == null || install.isJsonNull() ? null : install.getAsString();
+        manifest.release = json.get("release").getAsBoolean();
+        manifest.zipSize = json.get("zip_size").getAsLong();
+        manifest.zipSha1 = json.get("zip_sha1").getAsString();
+        manifest.zipModified = json.get("zip_modified").getAsLong();
+        for (Map.Entry<String,JsonElement> entry : json.getAsJsonObject("inputs").entrySet()) {
+            JsonObject input = entry.getValue().getAsJsonObject();
+            manifest.inputs.put(entry.getKey(), new InputState(input.get("size").getAsLong(),
+                                                               input.get("modified").getAsLong(),
+                                                               input.get("hash").getAsString()));
+        }
+        for (Map.Entry<String,JsonElement> entry : json.getAsJsonObject("outputs").entrySet()) {
+            JsonObject output = entry.getValue().getAsJsonObject();
+            List<String> sources = new ArrayList<>();
+            for (JsonElement source : output.getAsJsonArray("sources")) { sources.add(source.getAsString()); }
+            List<String> references = new ArrayList<>();
+            for (JsonElement reference : output.getAsJsonArray("references")) { references.add(reference.getAsString()); }
+            manifest.outputs.put(entry.getKey(), new Output(output.get("hash").getAsString(), sources, references));
+        }
+        return manifest;
+    }
+
+    public void save(Path path) throws IOException {
+        JsonObject json = new JsonObject();
+        json.addProperty("version", VERSION);
+        json.addProperty("install", install);
+        json.addProperty("release", release);
+        json.addProperty("zip_size", zipSize);
+        json.addProperty("zip_sha1", zipSha1);
+        json.addProperty("zip_modified", zipModified);
+        JsonObject inputsJson = new JsonObject();
+        for (Map.Entry<String,InputState> entry : inputs.entrySet()) {
+            JsonObject input = new JsonObject();
+            input.addProperty("size", entry.getValue().getSize());
+            input.addProperty("modified", entry.getValue().getModified());
+            input.addProperty("hash", entry.getValue().getHash());
+            inputsJson.add(entry.getKey(), input);
+        }
+        json.add("inputs", inputsJson);
+        JsonObject outputsJson = new JsonObject();
+        for (Map.Entry<String,Output> entry : outputs.entrySet()) {
+            JsonObject output = new JsonObject();
+            output.addProperty("hash", entry.getValue().getHash());
+            JsonArray sources = new JsonArray();
+            for (String source : entry.getValue().getSources()) { sources.add(source); }
+            output.add("sources", sources);
+            JsonArray references = new JsonArray();
+            for (String reference : entry.getValue().getReferences()) { references.add(reference); }
+            output.add("references", references);
+            outputsJson.add(entry.getKey(), output);
+        }
+        json.add("outputs", outputsJson);
+
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) { new Gson().toJson(json, writer); }
+    }
+
+    /**
+     * Size, modification time and content hash of an input file.
+     */
+    public static class InputState {
+        private final long size;
+        private final long modified;
+        private final String hash;
+
+        public InputState(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        public long getSize() { return size; }
+
+        public long getModified() { return modified; }
+
+        public String getHash() { return hash; }
+
+        /**
+         * Reads the state of a file, only hashing its contents if its size or modification time changed.
+         * @param previous State recorded for the file by the previous build, or null
+         */
+        public static InputState of(Path file, InputState previous) throws IOException {
+            long size = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (previous != null && previous.size == size && previous.modified == modified) { return previous; }
+            return new InputState(size, modified, Hashes.sha1(file));
+        }
+    }
+
+    /**
+     * A file in the pack: hash of its contents, the sources which were copied to its path and the paths it references.
+     */
+    public static class Output {
+        private final String hash;
+        private final List<String> sources;
+        private final List<String> references;
+
+        public Output(String hash, List<String> sources, List<String> references) {
+            this.hash = hash;
+            this.sources = sources;
+            this.references = references;
+        }
+
+        public String getHash() { return hash; }
+
+        public List<String> getSources() { return sources; }
+
+        /** @return Paths the file references, see {@link AssetGraph} */
+        public List<String> getReferences() { return references; }
+    }
+}
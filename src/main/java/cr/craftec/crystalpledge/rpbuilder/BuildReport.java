@@ -0,0 +1,200 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of a build: wall time, allocation, entries and bytes of every phase, and how many warnings of each type
+ * were reported or suppressed. Saved as JSON next to the zip, and phases are also recorded as JFR events.
+ */
+public class BuildReport {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final String started = Instant.now().toString();
+    private final long startNanos = System.nanoTime();
+    private final long startAllocated = getAllocatedBytes();
+    private final Map<String,Phase> phases = new LinkedHashMap<>();
+    private final Map<WarningType,Integer> warnings = new EnumMap<>(WarningType.class);
+    private final Map<WarningType,Integer> suppressedWarnings = new EnumMap<>(WarningType.class);
+    private final JsonObject summary = new JsonObject();
+
+    /**
+     * Starts measuring a phase, adding to what was measured for it before if it already ran.
+     * Phases may be nested, in which case the time and allocation of the inner one also count for the outer one.
+     */
+    public synchronized Phase phase(String name) {
+        Phase phase = getPhase(name);
+        phase.start();
+        return phase;
+    }
+
+    /**
+     * @return The phase with the given name, without starting it, to measure work that happens during another phase
+     *         with {@link Phase#sample}
+     */
+    public synchronized Phase getPhase(String name) { return phases.computeIfAbsent(name, Phase::new); }
+
+    public synchronized void countWarning(WarningType warningType, boolean suppressed) {
+        (suppressed ? suppressedWarnings : warnings).merge(warningType, 1, Integer::sum);
+    }
+
+    /** @return General information about the build, to add to */
+    public JsonObject getSummary() { return summary; }
+
+    public synchronized void save(Path path) throws IOException {
+        JsonObject json = new JsonObject();
+        json.addProperty("started", started);
+        json.addProperty("time_ms", (System.nanoTime()-startNanos)/1000000);
+        long allocated = getAllocatedBytes();
+        json.addProperty("allocated_bytes", allocated < 0 ? -1 : allocated-startAllocated);
+        for (Map.Entry<String,JsonElement> entry : summary.entrySet()) { json.add(entry.getKey(), entry.getValue()); }
+        JsonObject phasesJson = new JsonObject();
+        for (Phase phase : phases.values()) { phasesJson.add(phase.name, phase.toJson()); }
+        json.add("phases", phasesJson);
+        json.add("warnings", toJson(warnings));
+        json.add("suppressed_warnings", toJson(suppressedWarnings));
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(json, writer);
+        }
+    }
+
+    private static JsonObject toJson(Map<WarningType,Integer> counts) {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<WarningType,Integer> entry : counts.entrySet()) { json.addProperty(entry.getKey().name().toLowerCase(), entry.getValue()); }
+        return json;
+    }
+
+    /**
+     * @return Bytes allocated so far by every live thread, which includes the worker threads, or -1 if unsupported
+     */
+    private static long getAllocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) { return -1; }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) { return -1; }
+        long total = 0;
+        for (long allocated : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) { total += allocated; }
+        }
+        return total;
+    }
+
+    /**
+     * @return Bytes allocated so far by the current thread, or -1 if unsupported
+     */
+    private static long getThreadAllocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) { return -1; }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) { return -1; }
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * A step of the build, measured from {@link #phase} until closed, or as the sum of its samples. Entries and bytes
+     * are counted by the builder, and may be counted from several threads.
+     */
+    public static class Phase implements AutoCloseable {
+        private final String name;
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private long nanos;
+        private long allocated;
+        private int running;
+        private long startNanos;
+        private long startAllocated;
+        private PhaseEvent event;
+
+        private Phase(String name) { this.name = name; }
+
+        private synchronized void start() {
+            if (running++ > 0) { return; }
+            event = new PhaseEvent();
+            event.phase = name;
+            event.begin();
+            startNanos = System.nanoTime();
+            startAllocated = getAllocatedBytes();
+        }
+
+        /**
+         * Starts measuring a piece of work of this phase on the current thread, for work spread over another phase.
+         * Only the time and allocation of the work itself are added to this phase, once the sample is closed.
+         */
+        public Sample sample() { return new Sample(this); }
+
+        private synchronized void add(long sampleNanos, long sampleAllocated) {
+            nanos += sampleNanos;
+            allocated = sampleAllocated < 0 || allocated < 0 ? -1 : allocated+sampleAllocated;
+        }
+
+        public void addEntries(long count) { entries.addAndGet(count); }
+
+        public void addBytesRead(long count) { bytesRead.addAndGet(count); }
+
+        public void addBytesWritten(long count) { bytesWritten.addAndGet(count); }
+
+        @Override
+        public synchronized void close() {
+            if (--running > 0) { return; }
+            nanos += System.nanoTime()-startNanos;
+            long endAllocated = getAllocatedBytes();
+            allocated = endAllocated < 0 || allocated < 0 ? -1 : allocated+endAllocated-startAllocated;
+            event.entries = entries.get();
+            event.commit();
+        }
+
+        private synchronized JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("time_ms", nanos/1000000);
+            json.addProperty("allocated_bytes", allocated);
+            json.addProperty("entries", entries.get());
+            json.addProperty("bytes_read", bytesRead.get());
+            json.addProperty("bytes_written", bytesWritten.get());
+            return json;
+        }
+    }
+
+    /**
+     * Time and allocation of one piece of work on one thread, added to its phase when closed.
+     */
+    public static class Sample {
+        private final Phase phase;
+        private final long startNanos = System.nanoTime();
+        private final long startAllocated = getThreadAllocatedBytes();
+
+        private Sample(Phase phase) { this.phase = phase; }
+
+        public void close() {
+            long nanos = System.nanoTime()-startNanos;
+            long endAllocated = getThreadAllocatedBytes();
+            phase.add(nanos, endAllocated < 0 || startAllocated < 0 ? -1 : endAllocated-startAllocated);
+        }
+    }
+
+    @Name("cr.craftec.crystalpledge.rpbuilder.Phase")
+    @Label("Build Phase")
+    @Category("Resource Pack Builder")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("Entries")
+        long entries;
+    }
+}
@@ -0,0 +1,81 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.util.Arrays;
+
+/**
+ * Map from Unicode code points to non-negative ints, kept in primitive arrays with open addressing so that indexing
+ * every character of every font doesn't box them.
+ */
+public class CodePointMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public CodePointMap() { this(16); }
+
+    public CodePointMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(8, expectedSize*2-1))*2;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public int size() { return size; }
+
+    /** @return The value of the code point, or -1 if it has none */
+    public int get(int codePoint) {
+        int slot = find(keys, codePoint);
+        return keys[slot] == EMPTY ? -1 : values[slot];
+    }
+
+    public void put(int codePoint, int value) {
+        int slot = find(keys, codePoint);
+        if (keys[slot] == EMPTY) {
+            if ((size+1)*2 > keys.length) {
+                grow();
+                slot = find(keys, codePoint);
+            }
+            keys[slot] = codePoint;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /** @return Every code point in the map, in ascending order */
+    public int[] sortedKeys() {
+        int[] sorted = new int[size];
+        int count = 0;
+        for (int key : keys) {
+            if (key != EMPTY) { sorted[count++] = key; }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length*2];
+        values = new int[oldKeys.length*2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) { continue; }
+            int slot = find(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * @return Slot of the code point, or the empty slot it would go in
+     */
+    private static int find(int[] keys, int codePoint) {
+        int mask = keys.length-1;
+        int hash = codePoint*0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != codePoint) { slot = (slot+1) & mask; }
+        return slot;
+    }
+}
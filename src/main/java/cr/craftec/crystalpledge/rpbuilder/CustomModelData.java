@@ -0,0 +1,194 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.*;
+
+import java.util.*;
+
+/**
+ * Compiles the "custom_model_data" maps of item models into overrides, and indexes the custom model data of every item
+ * model. A map goes from each custom model data value to the model to use, or to a list of overrides whose predicates
+ * the value is added to:
+ * <pre>
+ * "custom_model_data": {
+ *   "1": "crystalpledge:item/arrow",
+ *   "2": [{"model": "crystalpledge:item/pistol"}, {"predicate": {"damage": 0.5}, "model": "crystalpledge:item/pistol_aiming"}]
+ * }
+ * </pre>
+ * The game uses the last override that matches, and a custom model data predicate matches every value at least as
+ * high, so the overrides of models with a map are sorted by custom model data.
+ */
+public class CustomModelData {
+    public static final String KEY = "custom_model_data";
+
+    private final Map<String,Map<Double,String>> index = new TreeMap<>();
+
+    /**
+     * @return Whether the file at the given path is the model of an item
+     */
+    public static boolean isItemModel(String path) {
+        String[] parts = path.split("/");
+        return parts.length == 5 && parts[0].equals("assets") && parts[2].equals("models") && parts[3].equals("item") && path.endsWith(".json");
+    }
+
+    /**
+     * Replaces the item model's custom model data map, if it has one, with the overrides it stands for, which are
+     * added after the existing ones.
+     * @throws JsonParseException If the map is not valid
+     */
+    public static void expand(JsonObject model) {
+        JsonElement map = model.remove(KEY);
+        if (map == null) { return; }
+        if (!map.isJsonObject()) { throw new JsonSyntaxException(KEY+" is not an object"); }
+        JsonArray overrides = model.has("overrides") ? model.getAsJsonArray("overrides") : new JsonArray();
+        for (Map.Entry<String,JsonElement> entry : map.getAsJsonObject().entrySet()) {
+            int customModelData;
+            try {
+                customModelData = Integer.parseInt(entry.getKey());
+            } catch (NumberFormatException e) {
+                throw new JsonSyntaxException(KEY+" \""+entry.getKey()+"\" is not a number");
+            }
+            JsonElement value = entry.getValue();
+            if (value.isJsonPrimitive()) {
+                JsonObject override = new JsonObject();
+                override.add("predicate", predicate(customModelData, null));
+                override.addProperty("model", value.getAsString());
+                overrides.add(override);
+                continue;
+            }
+            for (JsonElement variant : value.getAsJsonArray()) {
+                JsonObject override = new JsonObject();
+                override.add("predicate", predicate(customModelData, variant.getAsJsonObject().getAsJsonObject("predicate")));
+                for (Map.Entry<String,JsonElement> variantEntry : variant.getAsJsonObject().entrySet()) {
+                    if (!variantEntry.getKey().equals("predicate")) { override.add(variantEntry.getKey(), variantEntry.getValue()); }
+                }
+                overrides.add(override);
+            }
+        }
+        if (!model.has("overrides")) { model.add("overrides", overrides); }
+    }
+
+    private static JsonObject predicate(int customModelData, JsonObject others) {
+        JsonObject predicate = new JsonObject();
+        predicate.addProperty(KEY, customModelData);
+        if (others != null) {
+            for (Map.Entry<String,JsonElement> entry : others.entrySet()) {
+                if (!entry.getKey().equals(KEY)) { predicate.add(entry.getKey(), entry.getValue()); }
+            }
+        }
+        return predicate;
+    }
+
+    /**
+     * Sorts the overrides of an item model by custom model data, keeping the order of the ones with the same value,
+     * and the ones without any first.
+     * @return Whether the order changed
+     */
+    public static boolean sort(JsonObject model) {
+        JsonElement overrides = model.get("overrides");
+        if (overrides == null || !overrides.isJsonArray()) { return false; }
+        List<JsonElement> sorted = new ArrayList<>();
+        overrides.getAsJsonArray().forEach(sorted::add);
+        sorted.sort(Comparator.comparingDouble(CustomModelData::getValue));
+        JsonArray array = overrides.getAsJsonArray();
+        boolean changed = false;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (array.get(i) != sorted.get(i)) {
+                array.set(i, sorted.get(i));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return Whether the overrides of the item model are sorted by custom model data already
+     */
+    public static boolean isSorted(JsonObject model) {
+        JsonElement overrides = model.get("overrides");
+        if (overrides == null || !overrides.isJsonArray()) { return true; }
+        double previous = Double.NEGATIVE_INFINITY;
+        for (JsonElement override : overrides.getAsJsonArray()) {
+            double value = getValue(override);
+            if (value < previous) { return false; }
+            previous = value;
+        }
+        return true;
+    }
+
+    /**
+     * @return The custom model data an override checks for, or negative infinity if it doesn't
+     */
+    private static double getValue(JsonElement override) {
+        JsonElement predicate = override.isJsonObject() ? override.getAsJsonObject().get("predicate") : null;
+        JsonElement value = predicate != null && predicate.isJsonObject() ? predicate.getAsJsonObject().get(KEY) : null;
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber() ? value.getAsDouble() : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Indexes the custom model data of an item model, warning about predicates it has more than once, and for each
+     * value keeping the model of the override that only checks for it, or else of the first one.
+     */
+    public void add(String path, JsonObject model) {
+        JsonElement overrides = model.get("overrides");
+        if (overrides == null || !overrides.isJsonArray()) { return; }
+        Map<String,String> models = new HashMap<>();
+        Map<Double,String> values = new TreeMap<>();
+        for (JsonElement element : overrides.getAsJsonArray()) {
+            if (!element.isJsonObject()) { continue; }
+            JsonObject override = element.getAsJsonObject();
+            JsonElement predicate = override.get("predicate");
+            JsonElement modelElement = override.get("model");
+            String overrideModel = modelElement != null && modelElement.isJsonPrimitive() ? modelElement.getAsString() : null;
+            if (predicate == null || !predicate.isJsonObject()) { continue; }
+            String key = getKey(predicate.getAsJsonObject());
+            if (models.containsKey(key)) {
+                String previous = models.get(key);
+                ResourcePackBuilder.warn(WarningType.OVERRIDE, path, predicate+(Objects.equals(previous, overrideModel) ? "" : " maps to both "+previous+" and "+overrideModel));
+            }
+            models.put(key, overrideModel);
+            double value = getValue(override);
+            if (value == Double.NEGATIVE_INFINITY || overrideModel == null) { continue; }
+            if (!values.containsKey(value) || predicate.getAsJsonObject().size() == 1) { values.put(value, overrideModel); }
+        }
+        if (!values.isEmpty()) {
+            String[] parts = path.split("/");
+            index.put(parts[1]+':'+parts[4].substring(0, parts[4].length()-".json".length()), values);
+        }
+    }
+
+    /**
+     * @return The predicate in a form that is the same for every predicate checking the same values, whatever the order
+     *         of its keys and the way its numbers are written
+     */
+    private static String getKey(JsonObject predicate) {
+        Map<String,Object> values = new TreeMap<>();
+        for (Map.Entry<String,JsonElement> entry : predicate.entrySet()) {
+            JsonElement value = entry.getValue();
+            values.put(entry.getKey(), value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber() ? (Object) value.getAsDouble() : value.toString());
+        }
+        return values.toString();
+    }
+
+    /** @return Number of custom model data values indexed across every item */
+    public int size() {
+        int size = 0;
+        for (Map<Double,String> values : index.values()) { size += values.size(); }
+        return size;
+    }
+
+    /**
+     * @return The model of each custom model data value of each item, by item id
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String,Map<Double,String>> item : index.entrySet()) {
+            JsonObject values = new JsonObject();
+            for (Map.Entry<Double,String> entry : item.getValue().entrySet()) {
+                double value = entry.getKey();
+                values.addProperty(value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value), entry.getValue());
+            }
+            json.add(item.getKey(), values);
+        }
+        return json;
+    }
+}
@@ -0,0 +1,38 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Merges the providers of font files. Characters defined more than once are found afterwards by {@link GlyphMap},
+ * which indexes every font of the pack at once.
+ */
+public class FontMerge extends JsonMerge {
+    public FontMerge() { super("assets/*/font/**"); }
+
+    @Override
+    public void merge(String path, JsonObject master, JsonObject source) {
+        JsonArray masterProviders = master.getAsJsonArray("providers");
+        if (masterProviders == null) { master.add("providers", masterProviders = new JsonArray()); }
+        masterProviders.addAll(source.getAsJsonArray("providers"));
+    }
+
+    /**
+     * Calls the action for every character a provider defines, other than the null character used as padding.
+     */
+    static void forEachChar(JsonObject provider, IntConsumer action) {
+        JsonArray chars = provider.getAsJsonArray("chars");
+        if (chars != null) {
+            for (JsonElement charLine : chars) {
+                charLine.getAsString().codePoints().filter(character -> character != 0).forEach(action);
+            }
+        }
+        JsonObject advances = provider.getAsJsonObject("advances");
+        if (advances != null) {
+            for (String character : advances.keySet()) { character.codePoints().forEach(action); }
+        }
+    }
+}
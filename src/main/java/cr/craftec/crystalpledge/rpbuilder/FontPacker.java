@@ -0,0 +1,187 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Packs the bitmap providers of a font that share height, ascent and glyph cell height into one texture, so the game
+ * loads fewer and larger textures. Narrower cells are padded with transparent pixels to the right, which doesn't
+ * change the width the game measures for their glyphs. Providers defining a character some other provider of the font
+ * also defines are left alone, since merging them would change which of the two definitions comes first.
+ */
+public class FontPacker {
+    private final TextureReader textures;
+    private final Map<String,byte[]> atlases = new LinkedHashMap<>();
+    private final Set<String> packedTextures = new LinkedHashSet<>();
+
+    /**
+     * @param textures Reads the textures of the pack that may be packed
+     */
+    public FontPacker(TextureReader textures) { this.textures = textures; }
+
+    /** @return Every texture created so far by its path, to add to the pack */
+    public Map<String,byte[]> getAtlases() { return atlases; }
+
+    /** @return Every texture packed into one of the atlases so far, which the packed fonts no longer reference */
+    public Set<String> getPackedTextures() { return packedTextures; }
+
+    /**
+     * Packs the providers of a font, modifying it.
+     * @param path Path of the font file
+     * @return Whether any provider was packed
+     */
+    public boolean pack(String path, JsonObject font) throws IOException {
+        JsonElement providersElement = font.get("providers");
+        if (providersElement == null || !providersElement.isJsonArray()) { return false; }
+        JsonArray providers = providersElement.getAsJsonArray();
+
+        CodePointMap definitions = new CodePointMap();
+        for (JsonElement provider : providers) {
+            if (provider.isJsonObject()) { FontMerge.forEachChar(provider.getAsJsonObject(), codePoint -> definitions.put(codePoint, Math.max(0, definitions.get(codePoint))+1)); }
+        }
+        Map<String,List<Glyphs>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < providers.size(); i++) {
+            Glyphs glyphs = read(i, providers.get(i), definitions);
+            if (glyphs != null) { groups.computeIfAbsent(glyphs.getGroup(), key -> new ArrayList<>()).add(glyphs); }
+        }
+
+        String fontId = GlyphMap.getFontId(path);
+        Map<Integer,JsonObject> replacements = new HashMap<>();
+        Set<Integer> removed = new HashSet<>();
+        for (List<Glyphs> group : groups.values()) {
+            if (group.size() < 2) { continue; }
+            int cellWidth = 0;
+            int columns = 0;
+            int rows = 0;
+            for (Glyphs glyphs : group) {
+                cellWidth = Math.max(cellWidth, glyphs.cellWidth);
+                columns = Math.max(columns, glyphs.columns);
+                rows += glyphs.chars.size();
+            }
+            Glyphs first = group.get(0);
+            PngOptimizer.Bitmap atlas = new PngOptimizer.Bitmap(cellWidth*columns, first.cellHeight*rows);
+            JsonArray chars = new JsonArray();
+            int row = 0;
+            for (Glyphs glyphs : group) {
+                for (int y = 0; y < glyphs.bitmap.getHeight(); y++) {
+                    for (int column = 0; column < glyphs.columns; column++) {
+                        System.arraycopy(glyphs.bitmap.getArgb(), y*glyphs.bitmap.getWidth()+column*glyphs.cellWidth,
+                                         atlas.getArgb(), (row*first.cellHeight+y)*atlas.getWidth()+column*cellWidth, glyphs.cellWidth);
+                    }
+                }
+                for (String line : glyphs.chars) {
+                    StringBuilder padded = new StringBuilder(line);
+                    for (int column = glyphs.columns; column < columns; column++) { padded.append('\0'); }
+                    chars.add(padded.toString());
+                }
+                row += glyphs.chars.size();
+                packedTextures.add(glyphs.texture);
+                if (glyphs != first) { removed.add(glyphs.index); }
+            }
+
+            String namespace = first.texture.split("/", 3)[1];
+            String location = "font/packed/"+fontId.replace(':', '/')+'_'+replacements.size()+".png";
+            atlases.put("assets/"+namespace+"/textures/"+location, PngOptimizer.encode(atlas));
+            JsonObject provider = new JsonObject();
+            provider.addProperty("type", "bitmap");
+            provider.addProperty("file", namespace+':'+location);
+            provider.add("ascent", first.provider.get("ascent"));
+            if (first.provider.has("height")) { provider.add("height", first.provider.get("height")); }
+            provider.add("chars", chars);
+            replacements.put(first.index, provider);
+        }
+        if (replacements.isEmpty()) { return false; }
+
+        JsonArray packed = new JsonArray();
+        for (int i = 0; i < providers.size(); i++) {
+            if (removed.contains(i)) { continue; }
+            packed.add(replacements.containsKey(i) ? replacements.get(i) : providers.get(i));
+        }
+        font.add("providers", packed);
+        return true;
+    }
+
+    /**
+     * @param definitions How many times the font defines each character
+     * @return The glyphs of a provider that can be packed, or null if it can't be
+     */
+    private Glyphs read(int index, JsonElement element, CodePointMap definitions) throws IOException {
+        if (!element.isJsonObject()) { return null; }
+        JsonObject provider = element.getAsJsonObject();
+        if (!isString(provider, "type") || !provider.get("type").getAsString().equals("bitmap") || !isString(provider, "file")
+                || !isNumber(provider, "ascent") || provider.has("height") && !isNumber(provider, "height")) {
+            return null;
+        }
+        JsonElement charsElement = provider.get("chars");
+        if (charsElement == null || !charsElement.isJsonArray() || charsElement.getAsJsonArray().size() == 0) { return null; }
+        List<String> chars = new ArrayList<>();
+        int columns = -1;
+        for (JsonElement line : charsElement.getAsJsonArray()) {
+            if (!line.isJsonPrimitive() || !line.getAsJsonPrimitive().isString()) { return null; }
+            String string = line.getAsString();
+            int length = string.codePointCount(0, string.length());
+            if (columns >= 0 && length != columns || length == 0) { return null; }
+            columns = length;
+            if (string.codePoints().anyMatch(codePoint -> codePoint != 0 && definitions.get(codePoint) != 1)) { return null; }
+            chars.add(string);
+        }
+
+        String file = provider.get("file").getAsString();
+        int colon = file.indexOf(':');
+        String texture = "assets/"+(colon < 0 ? "minecraft" : file.substring(0, colon))+"/textures/"+file.substring(colon+1);
+        byte[] bytes = textures.read(texture);
+        PngOptimizer.Bitmap bitmap = bytes == null ? null : PngOptimizer.decode(bytes);
+        if (bitmap == null || bitmap.getWidth()%columns != 0 || bitmap.getHeight()%chars.size() != 0) { return null; }
+        return new Glyphs(index, provider, texture, bitmap, chars, columns);
+    }
+
+    private static boolean isString(JsonObject object, String key) {
+        JsonElement value = object.get(key);
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isString();
+    }
+
+    private static boolean isNumber(JsonObject object, String key) {
+        JsonElement value = object.get(key);
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber();
+    }
+
+    @FunctionalInterface
+    public interface TextureReader {
+        /**
+         * @return The contents of the texture at the given path of the pack, or null if it may not be packed
+         */
+        byte[] read(String path) throws IOException;
+    }
+
+    /**
+     * A bitmap provider that can be packed, with its texture.
+     */
+    private static class Glyphs {
+        private final int index;
+        private final JsonObject provider;
+        private final String texture;
+        private final PngOptimizer.Bitmap bitmap;
+        private final List<String> chars;
+        private final int columns;
+        private final int cellWidth;
+        private final int cellHeight;
+
+        private Glyphs(int index, JsonObject provider, String texture, PngOptimizer.Bitmap bitmap, List<String> chars, int columns) {
+            this.index = index;
+            this.provider = provider;
+            this.texture = texture;
+            this.bitmap = bitmap;
+            this.chars = chars;
+            this.columns = columns;
+            cellWidth = bitmap.getWidth()/columns;
+            cellHeight = bitmap.getHeight()/chars.size();
+        }
+
+        /** @return What providers need in common to be packed together */
+        private String getGroup() { return provider.get("ascent").getAsInt()+"/"+(provider.has("height") ? provider.get("height").getAsInt() : 8)+'/'+cellHeight; }
+    }
+}
@@ -0,0 +1,26 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.util.regex.Pattern;
+
+/**
+ * Glob patterns matching paths of the pack, where '*' matches within a directory and '**' across directories.
+ */
+public final class Glob {
+    private Glob() {}
+
+    public static Pattern compile(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i+1 < glob.length() && glob.charAt(i+1) == '*') {
+                regex.append(".*");
+                i++;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,154 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.*;
+
+/**
+ * Index of the characters defined by every font of the pack, warning about characters a font defines more than once
+ * and mapping the ones different fonts give different glyphs.
+ * A glyph is its texture and cell for bitmap providers, and its whole provider otherwise, so fonts that reuse a texture
+ * at another height or ascent (like the ascii font) don't count as colliding.
+ */
+public class GlyphMap {
+    private static final int ENTRY_SIZE = 4;
+
+    private final List<String> fonts = new ArrayList<>();
+    private final List<CodePointMap> fontChars = new ArrayList<>();
+    private final Map<String,Integer> providerKeys = new HashMap<>();
+    /** First entry of each code point */
+    private final CodePointMap heads = new CodePointMap(1024);
+    /** Font, provider key, cell and next entry of the same code point, for every character defined by a font */
+    private int[] entries = new int[ENTRY_SIZE*1024];
+    private int entryCount;
+
+    /**
+     * @return Whether the file at the given path is a font definition
+     */
+    public static boolean isFont(String path) {
+        String[] parts = path.split("/", 4);
+        return parts.length == 4 && parts[0].equals("assets") && parts[2].equals("font") && path.endsWith(".json");
+    }
+
+    /**
+     * @return The font's id, as used in text components
+     */
+    public static String getFontId(String path) {
+        String[] parts = path.split("/", 4);
+        return parts[1]+':'+parts[3].substring(0, parts[3].length()-".json".length());
+    }
+
+    /**
+     * Indexes the characters of a font, warning about the ones defined more than once.
+     * Only the first definition of a character is used by the game, so later ones are left out of the map.
+     */
+    public void add(String path, JsonObject font) {
+        int fontIndex = fonts.size();
+        fonts.add(path);
+        CodePointMap chars = new CodePointMap();
+        fontChars.add(chars);
+        JsonElement providers = font.get("providers");
+        if (providers == null || !providers.isJsonArray()) { return; }
+        for (JsonElement element : providers.getAsJsonArray()) {
+            if (!element.isJsonObject()) { continue; }
+            JsonObject provider = element.getAsJsonObject();
+            String file = "bitmap".equals(getString(provider, "type")) ? getString(provider, "file") : null;
+            boolean bitmap = file != null;
+            String key = bitmap ? (file.indexOf(':') < 0 ? "minecraft:"+file : file) : provider.toString();
+            int providerKey = providerKeys.computeIfAbsent(key, newKey -> providerKeys.size());
+            JsonElement charLines = provider.get("chars");
+            if (charLines != null && charLines.isJsonArray()) {
+                int row = 0;
+                for (JsonElement charLine : charLines.getAsJsonArray()) {
+                    if (!charLine.isJsonPrimitive()) { continue; }
+                    String line = charLine.getAsString();
+                    int column = 0;
+                    for (int i = 0; i < line.length(); i += Character.charCount(line.codePointAt(i)), column++) {
+                        int codePoint = line.codePointAt(i);
+                        if (codePoint != 0) { addChar(path, fontIndex, chars, codePoint, providerKey, bitmap ? row << 16 | column : codePoint); }
+                    }
+                    row++;
+                }
+            }
+            JsonElement advances = provider.get("advances");
+            if (advances != null && advances.isJsonObject()) {
+                for (String character : advances.getAsJsonObject().keySet()) {
+                    character.codePoints().forEach(codePoint -> addChar(path, fontIndex, chars, codePoint, providerKey, codePoint));
+                }
+            }
+        }
+    }
+
+    private void addChar(String path, int fontIndex, CodePointMap chars, int codePoint, int providerKey, int cell) {
+        if (chars.get(codePoint) >= 0) {
+            ResourcePackBuilder.warn(WarningType.CHAR, path+':'+PackJson.escape(codePoint), null);
+            return;
+        }
+        chars.put(codePoint, 1);
+        if (entries.length < (entryCount+1)*ENTRY_SIZE) { entries = Arrays.copyOf(entries, entries.length*2); }
+        int entry = entryCount++*ENTRY_SIZE;
+        entries[entry] = fontIndex;
+        entries[entry+1] = providerKey;
+        entries[entry+2] = cell;
+        entries[entry+3] = heads.get(codePoint);
+        heads.put(codePoint, entry);
+    }
+
+    /**
+     * @return Every character that more than one font gives different glyphs, in ascending order
+     */
+    public int[] getCollisions() {
+        int[] codePoints = heads.sortedKeys();
+        int count = 0;
+        for (int codePoint : codePoints) {
+            int head = heads.get(codePoint);
+            for (int entry = entries[head+3]; entry >= 0; entry = entries[entry+3]) {
+                if (entries[entry+1] != entries[head+1] || entries[entry+2] != entries[head+2]) {
+                    codePoints[count++] = codePoint;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(codePoints, count);
+    }
+
+    /**
+     * @return The ranges of characters every font defines, and the fonts defining each colliding character
+     */
+    public JsonObject toJson() {
+        JsonObject fontsJson = new JsonObject();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < fonts.size(); i++) { order.add(i); }
+        order.sort(Comparator.comparing(fonts::get));
+        for (int fontIndex : order) {
+            JsonArray ranges = new JsonArray();
+            int[] codePoints = fontChars.get(fontIndex).sortedKeys();
+            for (int i = 0; i < codePoints.length; i++) {
+                int start = codePoints[i];
+                while (i+1 < codePoints.length && codePoints[i+1] == codePoints[i]+1) { i++; }
+                ranges.add(start == codePoints[i] ? Character.toString(start) : Character.toString(start)+'-'+Character.toString(codePoints[i]));
+            }
+            fontsJson.add(getFontId(fonts.get(fontIndex)), ranges);
+        }
+        JsonObject collisions = new JsonObject();
+        for (int codePoint : getCollisions()) {
+            List<String> fontIds = new ArrayList<>();
+            for (int entry = heads.get(codePoint); entry >= 0; entry = entries[entry+3]) { fontIds.add(getFontId(fonts.get(entries[entry]))); }
+            Collections.sort(fontIds);
+            JsonArray fontsArray = new JsonArray();
+            for (String fontId : fontIds) { fontsArray.add(fontId); }
+            collisions.add(Character.toString(codePoint), fontsArray);
+        }
+        JsonObject json = new JsonObject();
+        json.add("fonts", fontsJson);
+        json.add("collisions", collisions);
+        return json;
+    }
+
+    private static String getString(JsonObject object, String key) {
+        JsonElement value = object.get(key);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+}
@@ -0,0 +1,45 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 helpers for content hashes, the same algorithm Minecraft uses to verify server resource packs.
+ */
+public final class Hashes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Hashes() {}
+
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String sha1(byte[] bytes) { return toHex(sha1().digest(bytes)); }
+
+    public static String sha1(Path path) throws IOException {
+        MessageDigest digest = sha1();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(path)) {
+            for (int read; (read = in.read(buffer)) >= 0; ) { digest.update(buffer, 0, read); }
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length*2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i*2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i*2+1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
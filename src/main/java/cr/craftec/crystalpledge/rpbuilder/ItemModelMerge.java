@@ -0,0 +1,35 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Merges item models: the newly copied model replaces the previous one, but keeps the previous model's overrides
+ * before its own. Like other replaced files, this gives a file warning, unless the new model declares a custom model
+ * data map, which is how layers add to a model. Custom model data maps are expanded into overrides first, and the
+ * overrides are then sorted, see {@link CustomModelData}.
+ */
+public class ItemModelMerge extends JsonMerge {
+    public ItemModelMerge() { super("assets/*/models/item/*.json"); }
+
+    @Override
+    public void merge(String path, JsonObject master, JsonObject source) {
+        boolean mapped = master.has(CustomModelData.KEY) || source.has(CustomModelData.KEY);
+        if (!source.has(CustomModelData.KEY)) { ResourcePackBuilder.warn(WarningType.FILE, path, null); }
+        CustomModelData.expand(master);
+        CustomModelData.expand(source);
+        JsonArray overrides = master.has("overrides") ? master.getAsJsonArray("overrides") : new JsonArray();
+        JsonArray sourceOverrides = source.getAsJsonArray("overrides");
+        if (sourceOverrides != null) { overrides.addAll(sourceOverrides); }
+
+        master.keySet().clear();
+        for (Map.Entry<String,JsonElement> entry : source.entrySet()) {
+            master.add(entry.getKey(), entry.getKey().equals("overrides") ? overrides : entry.getValue());
+        }
+        if (!master.has("overrides") && overrides.size() > 0) { master.add("overrides", overrides); }
+        if (mapped) { CustomModelData.sort(master); }
+    }
+}
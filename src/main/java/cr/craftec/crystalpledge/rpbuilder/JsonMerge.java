@@ -0,0 +1,52 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonObject;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Merges JSON files copied to the same path into one, for the paths matching a {@link Glob} pattern.
+ */
+public abstract class JsonMerge {
+    /** Every merge type, by priority */
+    public static final List<JsonMerge> MERGES = List.of(new LangMerge(),
+                                                         new FontMerge(),
+                                                         new SoundsMerge(),
+                                                         new AtlasMerge(),
+                                                         new ItemModelMerge());
+
+    private final Pattern pattern;
+
+    protected JsonMerge(String glob) { pattern = Glob.compile(glob); }
+
+    /**
+     * @return The merge type for files at the given path, or null if they replace each other instead
+     */
+    public static JsonMerge forPath(String path) {
+        for (JsonMerge merge : MERGES) {
+            if (merge.matches(path)) { return merge; }
+        }
+        return null;
+    }
+
+    public boolean matches(String path) { return pattern.matcher(path).matches(); }
+
+    /**
+     * @return Whether even the first file copied to a path goes through the merge, instead of being copied as is
+     */
+    public boolean isAlwaysMerged() { return false; }
+
+    /**
+     * @return Paths the source file is merged into, by default only its own
+     */
+    public List<String> getTargets(String path, JsonObject source) { return List.of(path); }
+
+    /**
+     * Merges a newly copied file into the result of merging the previous ones.
+     * @param path Path of the merged file
+     * @param master Result of the previous merges, to modify
+     * @param source Newly copied file, which takes priority
+     */
+    public abstract void merge(String path, JsonObject master, JsonObject source);
+}
@@ -0,0 +1,20 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A pack file whose contents are the result of merging several JSON files, serialized when read.
+ */
+public class JsonPackFile implements PackFile {
+    private final JsonObject json;
+
+    public JsonPackFile(JsonObject json) { this.json = json; }
+
+    public JsonObject getJson() { return json; }
+
+    @Override
+    public byte[] read() { return PackJson.write(json); }
+
+    /** @return The contents without any whitespace */
+    public byte[] readMinified() { return PackJson.write(json, false); }
+}
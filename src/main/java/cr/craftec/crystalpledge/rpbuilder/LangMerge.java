@@ -0,0 +1,39 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the keys of lang files. A lang file with a "langs" array is merged into each of the listed languages instead.
+ */
+public class LangMerge extends JsonMerge {
+    public LangMerge() { super("assets/minecraft/lang/**"); }
+
+    @Override
+    public boolean isAlwaysMerged() { return true; }
+
+    @Override
+    public List<String> getTargets(String path, JsonObject source) {
+        JsonArray langs = source.getAsJsonArray("langs");
+        if (langs == null) { return List.of(path); }
+        List<String> targets = new LinkedList<>();
+        for (JsonElement lang : langs) { targets.add("assets/minecraft/lang/"+lang.getAsString()+".json"); }
+        return targets;
+    }
+
+    @Override
+    public void merge(String path, JsonObject master, JsonObject source) {
+        boolean shared = source.has("langs");
+        for (Map.Entry<String,JsonElement> entry : source.entrySet()) {
+            String key = entry.getKey();
+            if (shared && key.equals("langs")) { continue; }
+            if (master.has(key)) { ResourcePackBuilder.warn(WarningType.LANG, path+':'+key, null); }
+            master.add(key, entry.getValue());
+        }
+    }
+}
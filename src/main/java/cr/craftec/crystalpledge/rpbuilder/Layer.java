@@ -0,0 +1,20 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A named group of sources copied into the pack together. Later layers override earlier ones.
+ */
+public class Layer {
+    private final String name;
+    private final List<PackSource> sources = new LinkedList<>();
+
+    public Layer(String name) { this.name = name; }
+
+    public String getName() { return name; }
+
+    public List<PackSource> getSources() { return sources; }
+
+    public void add(PackSource source) { sources.add(source); }
+}
@@ -0,0 +1,18 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lazily readable contents of a file in the resource pack.
+ */
+public interface PackFile {
+    byte[] read() throws IOException;
+
+    static PackFile of(byte[] bytes) { return () -> bytes; }
+
+    static PackFile of(Path path) { return () -> Files.readAllBytes(path); }
+
+    static PackFile of(PackZipReader zip, PackZipEntry entry) { return new ZipPackFile(zip, entry); }
+}
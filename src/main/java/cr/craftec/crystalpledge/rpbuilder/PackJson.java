@@ -0,0 +1,153 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Reads and writes the JSON files of the pack.
+ * Strings are written escaping every non-printing character, such as the private use characters fonts map glyphs to,
+ * so they stay readable and survive any editor.
+ */
+public final class PackJson {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<Output> prettyOutputs = ThreadLocal.withInitial(() -> new Output(true));
+    private static final ThreadLocal<Output> compactOutputs = ThreadLocal.withInitial(() -> new Output(false));
+
+    private PackJson() {}
+
+    /**
+     * @throws JsonParseException If the bytes are not valid JSON
+     * @throws IllegalStateException If the JSON is not an object
+     */
+    public static JsonObject parse(byte[] bytes) {
+        int offset = bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF ? 3 : 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes, offset, bytes.length-offset), StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        JsonElement element = JsonParser.parseReader(reader);
+        try {
+            if (reader.peek() != JsonToken.END_DOCUMENT) { throw new JsonSyntaxException("Did not consume the entire document"); }
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+        return element.getAsJsonObject();
+    }
+
+    /**
+     * Writes JSON indented by two spaces, encoded in UTF-8.
+     */
+    public static byte[] write(JsonElement json) { return write(json, true); }
+
+    /**
+     * Writes JSON encoded in UTF-8.
+     * @param pretty Whether to indent by two spaces, or write everything in one line without any whitespace
+     */
+    public static byte[] write(JsonElement json, boolean pretty) {
+        Output output = (pretty ? prettyOutputs : compactOutputs).get();
+        output.bytes.reset();
+        try {
+            write(output.writer, json);
+            output.writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.bytes.toByteArray();
+    }
+
+    private static void write(JsonWriter writer, JsonElement json) throws IOException {
+        if (json.isJsonObject()) {
+            writer.beginObject();
+            for (Map.Entry<String,JsonElement> entry : json.getAsJsonObject().entrySet()) {
+                writer.name(entry.getKey());
+                write(writer, entry.getValue());
+            }
+            writer.endObject();
+        } else if (json.isJsonArray()) {
+            writer.beginArray();
+            for (JsonElement element : json.getAsJsonArray()) { write(writer, element); }
+            writer.endArray();
+        } else if (json.isJsonNull()) {
+            writer.nullValue();
+        } else {
+            JsonPrimitive primitive = json.getAsJsonPrimitive();
+            if (primitive.isString()) {
+                writer.jsonValue(quote(primitive.getAsString()));
+            } else if (primitive.isBoolean()) {
+                writer.value(primitive.getAsBoolean());
+            } else {
+                writer.value(primitive.getAsNumber());
+            }
+        }
+    }
+
+    private static String quote(String string) {
+        StringBuilder builder = new StringBuilder(string.length()+2).append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                case '\b': builder.append("\\b"); break;
+                case '\f': builder.append("\\f"); break;
+                default:
+                    if (isPrintable(c)) {
+                        builder.append(c);
+                    } else {
+                        appendEscape(builder, c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static boolean isPrintable(char c) {
+        if (c < 0x80) { return c >= 0x20 && c != 0x7F; }
+        switch (Character.getType(c)) {
+            case Character.CONTROL:
+            case Character.FORMAT:
+            case Character.PRIVATE_USE:
+            case Character.SURROGATE:
+            case Character.UNASSIGNED:
+            case Character.LINE_SEPARATOR:
+            case Character.PARAGRAPH_SEPARATOR:
+            case Character.SPACE_SEPARATOR:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static void appendEscape(StringBuilder builder, char c) {
+        builder.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+    }
+
+    /**
+     * @return The code point written as JSON escape sequences, for use in messages
+     */
+    public static String escape(int codePoint) {
+        StringBuilder builder = new StringBuilder(12);
+        for (char c : Character.toChars(codePoint)) { appendEscape(builder, c); }
+        return builder.toString();
+    }
+
+    /**
+     * Reusable buffer and writer, one per thread. The writer is lenient so it accepts one document after another.
+     */
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        private final JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8));
+
+        private Output(boolean pretty) {
+            if (pretty) { writer.setIndent("  "); }
+            writer.setLenient(true);
+        }
+    }
+}
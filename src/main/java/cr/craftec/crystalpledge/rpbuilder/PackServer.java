@@ -0,0 +1,253 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the built zips over HTTP, and rebuilds the pack when asked to:
+ * <ul>
+ *     <li><code>GET /&lt;zip&gt;</code> downloads a zip, with its SHA-1 as ETag, conditional requests and a byte range</li>
+ *     <li><code>GET /&lt;zip&gt;.sha1</code> gives the SHA-1 of a zip</li>
+ *     <li><code>POST /rebuild</code> rebuilds the pack, from scratch with <code>?clean</code></li>
+ * </ul>
+ * Rebuilds can only be asked for from the machine the server runs on, so the zips can be served to players without
+ * letting them start builds.
+ * Zips are served from memory, so a download always gets the whole of one build even if another one finishes meanwhile.
+ */
+public class PackServer implements Closeable {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Builder builder;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile Map<String,Zip> zips = Map.of();
+
+    /**
+     * Starts serving at the given address.
+     * @param builder Rebuilds the pack when asked to
+     */
+    public PackServer(InetSocketAddress address, Builder builder) throws IOException {
+        this.builder = builder;
+        server = HttpServer.create(address, 0);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "rpbuilder-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** @return The address the server listens at, with the port it got if it was started at port 0 */
+    public InetSocketAddress getAddress() { return server.getAddress(); }
+
+    /** @return Every zip served, by file name */
+    public Map<String,Zip> getZips() { return zips; }
+
+    /**
+     * Replaces every zip served, which requests being answered keep using until they are done.
+     * @param zips Zips by file name
+     */
+    public void setZips(Map<String,Zip> zips) { this.zips = Map.copyOf(zips); }
+
+    /**
+     * Blocks until the server is closed.
+     */
+    public void join() throws InterruptedException { stopped.await(); }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        stopped.countDown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.equals("/rebuild")) {
+                if (!method.equals("POST")) {
+                    exchange.getResponseHeaders().set("Allow", "POST");
+                    sendText(exchange, 405, "Use POST to rebuild\n");
+                    return;
+                }
+                if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+                    sendText(exchange, 403, "Rebuilds can only be asked for from this machine\n");
+                    return;
+                }
+                String query = exchange.getRequestURI().getQuery();
+                try {
+                    sendText(exchange, 200, builder.rebuild(query != null && query.equals("clean")));
+                } catch (IOException | RuntimeException e) {
+                    sendText(exchange, 500, "Build failed: "+e+'\n');
+                }
+                return;
+            }
+
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                sendText(exchange, 405, "Only GET and HEAD are allowed\n");
+                return;
+            }
+            String name = path.substring(1);
+            Zip sha1Zip = name.endsWith(".sha1") ? zips.get(name.substring(0, name.length()-".sha1".length())) : null;
+            if (sha1Zip != null) {
+                sendText(exchange, 200, sha1Zip.sha1);
+                return;
+            }
+            Zip zip = zips.get(name);
+            if (zip == null) {
+                sendText(exchange, 404, "Not found\n");
+                return;
+            }
+            sendZip(exchange, zip);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendZip(HttpExchange exchange, Zip zip) throws IOException {
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        String etag = '"'+zip.sha1+'"';
+        response.set("ETag", etag);
+        response.set("Last-Modified", HTTP_DATE.format(zip.modified));
+        // Clients check for a newer build every time, which only costs a 304 if there is none
+        response.set("Cache-Control", "no-cache");
+        response.set("Accept-Ranges", "bytes");
+
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        if (ifNoneMatch != null ? matches(ifNoneMatch, etag) : !isModifiedSince(zip, request.getFirst("If-Modified-Since"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        int start = 0;
+        int end = zip.bytes.length;
+        String range = request.getFirst("Range");
+        String ifRange = request.getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, zip.bytes.length);
+            if (bounds != null && bounds.length == 0) {
+                response.set("Content-Range", "bytes */"+zip.bytes.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (bounds != null) {
+                start = (int) bounds[0];
+                end = (int) bounds[1];
+                response.set("Content-Range", "bytes "+start+'-'+(end-1)+'/'+zip.bytes.length);
+            }
+        }
+        response.set("Content-Type", "application/zip");
+        int status = end-start == zip.bytes.length ? 200 : 206;
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            response.set("Content-Length", Integer.toString(end-start));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, end-start);
+        try (OutputStream body = exchange.getResponseBody()) { body.write(zip.bytes, start, end-start); }
+    }
+
+    /**
+     * @return Whether a list of entity tags, or "*", matches the given one
+     */
+    static boolean matches(String tags, String etag) {
+        for (String tag : tags.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) { tag = tag.substring(2); }
+            if (tag.equals("*") || tag.equals(etag)) { return true; }
+        }
+        return false;
+    }
+
+    private static boolean isModifiedSince(Zip zip, String date) {
+        if (date == null) { return true; }
+        try {
+            return zip.modified.getEpochSecond() > Instant.from(HTTP_DATE.parse(date)).getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Parses a single byte range, the only kind the game and browsers ask for.
+     * @return The start and end (exclusive) of the range, an empty array if it is out of bounds, or null if the whole
+     *         file should be sent instead
+     */
+    static long[] parseRange(String range, int length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) { return null; }
+        String[] bounds = range.substring("bytes=".length()).trim().split("-", -1);
+        if (bounds.length != 2) { return null; }
+        try {
+            if (bounds[0].isEmpty()) {
+                // Suffix range: the last bytes of the file
+                long suffix = Long.parseLong(bounds[1]);
+                return suffix <= 0 ? new long[0] : new long[]{Math.max(0, length-suffix), length};
+            }
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].isEmpty() ? length : Math.min(length, Long.parseLong(bounds[1])+1);
+            if (start >= length) { return new long[0]; }
+            return end <= start ? null : new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) { body.write(bytes); }
+    }
+
+    @FunctionalInterface
+    public interface Builder {
+        /**
+         * Rebuilds the pack, serving the new zips.
+         * @param clean Whether to ignore the previous build and process everything
+         * @return What was built, to answer with
+         */
+        String rebuild(boolean clean) throws IOException;
+    }
+
+    /**
+     * A built zip, with its SHA-1 and the time it was built.
+     */
+    public static class Zip {
+        private final byte[] bytes;
+        private final String sha1;
+        private final Instant modified;
+
+        public Zip(byte[] bytes, String sha1, Instant modified) {
+            this.bytes = bytes;
+            this.sha1 = sha1;
+            this.modified = modified;
+        }
+
+        public String getSha1() { return sha1; }
+    }
+}
@@ -0,0 +1,36 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+/**
+ * A file contributed to the pack by one of the input layers.
+ */
+public class PackSource {
+    private final String input;
+    private final String entry;
+    private final String path;
+    private final PackFile file;
+
+    /**
+     * @param input Path of the input file this comes from, e.g. a library zip or an asset file
+     * @param entry Name of the entry inside the input, or null if the input itself is the source
+     * @param path Path of the file inside the pack
+     * @param file Contents of the file
+     */
+    public PackSource(String input, String entry, String path, PackFile file) {
+        this.input = input;
+        this.entry = entry;
+        this.path = path;
+        this.file = file;
+    }
+
+    public String getInput() { return input; }
+
+    /** @return Unique identifier of this source, stable between builds */
+    public String getId() { return entry == null ? input : input+'!'+entry; }
+
+    public String getPath() { return path; }
+
+    public PackFile getFile() { return file; }
+
+    /** @return A copy of this source with different contents */
+    public PackSource withFile(PackFile file) { return new PackSource(input, entry, path, file); }
+}
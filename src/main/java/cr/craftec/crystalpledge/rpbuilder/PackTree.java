@@ -0,0 +1,37 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.util.*;
+
+/**
+ * In-memory view of the resource pack being built, mapping pack paths (always separated by '/') to their contents.
+ * Files are kept in the order they were first added, and later layers replace or merge into earlier ones.
+ */
+public class PackTree {
+    private final Map<String,PackFile> files = new LinkedHashMap<>();
+    private final Map<String,List<String>> sources = new HashMap<>();
+
+    public PackFile get(String path) { return files.get(path); }
+
+    public boolean contains(String path) { return files.containsKey(path); }
+
+    public void put(String path, PackFile file) { files.put(path, file); }
+
+    public void remove(String path) { files.remove(path); }
+
+    public Collection<Map.Entry<String,PackFile>> entries() { return files.entrySet(); }
+
+    public int size() { return files.size(); }
+
+    /**
+     * Records that a source was copied to the given path, whether it ended up replacing, merging or being discarded.
+     */
+    public void addSource(String path, String sourceId) {
+        sources.computeIfAbsent(path, key -> new LinkedList<>()).add(sourceId);
+    }
+
+    /** @return Ids of every source copied to the given path, in copy order */
+    public List<String> getSources(String path) { return sources.getOrDefault(path, List.of()); }
+
+    /** @return Every path a source was copied to, including those which did not produce a file */
+    public Set<String> getTouchedPaths() { return sources.keySet(); }
+}
@@ -0,0 +1,103 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the inputs of the resource pack for changes: whole directory trees, and single files.
+ */
+public class PackWatcher implements Closeable {
+    private final WatchService watchService;
+    private final Map<WatchKey,Path> directories = new HashMap<>();
+    private final Set<Path> trees = new HashSet<>();
+    private final Set<Path> files = new HashSet<>();
+
+    public PackWatcher() throws IOException { watchService = FileSystems.getDefault().newWatchService(); }
+
+    /**
+     * Watches every file inside a directory, including those in subdirectories created later.
+     */
+    public void watchTree(Path root) throws IOException {
+        root = root.toAbsolutePath().normalize();
+        trees.add(root);
+        registerTree(root);
+    }
+
+    /**
+     * Watches a single file, which doesn't need to exist yet.
+     */
+    public void watchFile(Path file) throws IOException {
+        file = file.toAbsolutePath().normalize();
+        files.add(file);
+        Path parent = file.getParent();
+        if (Files.isDirectory(parent) && !directories.containsValue(parent)) { register(parent); }
+    }
+
+    /**
+     * Stops watching every single file, keeping directory trees.
+     */
+    public void clearFiles() { files.clear(); }
+
+    private void registerTree(Path root) throws IOException {
+        if (!Files.isDirectory(root)) { return; }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path directory : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                if (!directories.containsValue(directory)) { register(directory); }
+            }
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        directories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+    }
+
+    private boolean isWatched(Path path) {
+        if (files.contains(path)) { return true; }
+        for (Path tree : trees) {
+            if (path.startsWith(tree)) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until a watched file changes, then keeps collecting changes until none happen for the given time,
+     * so that saving several files at once only triggers one rebuild.
+     * @return Every changed path, or null if events were lost and anything may have changed
+     */
+    public Set<Path> awaitChanges(long debounceMillis) throws InterruptedException, IOException {
+        Set<Path> changed = new LinkedHashSet<>();
+        boolean overflow = false;
+        WatchKey key = watchService.take();
+        while (key != null) {
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                if (directory == null) { continue; }
+                Path path = directory.resolve((Path) event.context());
+                if (!isWatched(path)) { continue; }
+                changed.add(path);
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) { registerTree(path); }
+            }
+            if (!key.reset()) { directories.remove(key); }
+            if (changed.isEmpty() && !overflow) {
+                key = watchService.take();
+            } else {
+                key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return overflow ? null : changed;
+    }
+
+    @Override
+    public void close() throws IOException { watchService.close(); }
+}
@@ -0,0 +1,65 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.time.LocalDateTime;
+
+/**
+ * Metadata of a file stored in a zip archive, as found in its central directory.
+ */
+public class PackZipEntry {
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long dosTime;
+    private final long offset;
+
+    public PackZipEntry(String name, int method, long crc, long compressedSize, long size, long dosTime, long offset) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.dosTime = dosTime;
+        this.offset = offset;
+    }
+
+    public String getName() { return name; }
+
+    public int getMethod() { return method; }
+
+    public long getCrc() { return crc; }
+
+    public long getCompressedSize() { return compressedSize; }
+
+    public long getSize() { return size; }
+
+    /** @return Modification time in MS-DOS format, date in the high 16 bits and time in the low 16 bits */
+    public long getDosTime() { return dosTime; }
+
+    /** @return Offset of the entry's local file header in the archive it was read from, or written to */
+    public long getOffset() { return offset; }
+
+    public boolean isDirectory() { return name.endsWith("/"); }
+
+    public PackZipEntry withName(String name) {
+        return new PackZipEntry(name, method, crc, compressedSize, size, dosTime, offset);
+    }
+
+    public PackZipEntry withDosTime(long dosTime) {
+        return new PackZipEntry(name, method, crc, compressedSize, size, dosTime, offset);
+    }
+
+    public PackZipEntry withOffset(long offset) {
+        return new PackZipEntry(name, method, crc, compressedSize, size, dosTime, offset);
+    }
+
+    public static long toDosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) { time = LocalDateTime.of(1980, 1, 1, 0, 0); }
+        return ((long) (time.getYear()-1980) << 25) | ((long) time.getMonthValue() << 21) | ((long) time.getDayOfMonth() << 16)
+                | ((long) time.getHour() << 11) | ((long) time.getMinute() << 5) | (time.getSecond() >> 1);
+    }
+}
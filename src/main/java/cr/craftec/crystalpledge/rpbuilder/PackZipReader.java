@@ -0,0 +1,126 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads zip archives giving access to the compressed data of their entries, so it can be copied without recompressing.
+ */
+public class PackZipReader implements Closeable {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+    private final FileChannel channel;
+    private final Map<String,PackZipEntry> entries = new LinkedHashMap<>();
+
+    public PackZipReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long size = channel.size();
+        int tailSize = (int) Math.min(size, 22+0xFFFF);
+        ByteBuffer tail = read(size-tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize-22; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) { end = i; break; }
+        }
+        if (end < 0) { throw new ZipException("End of central directory not found"); }
+        int count = tail.getShort(end+10) & 0xFFFF;
+        long directorySize = tail.getInt(end+12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end+16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) { throw new ZipException("ZIP64 archives are not supported"); }
+
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_SIGNATURE) { throw new ZipException("Invalid central directory header"); }
+            int nameLength = directory.getShort(position+28) & 0xFFFF;
+            int extraLength = directory.getShort(position+30) & 0xFFFF;
+            int commentLength = directory.getShort(position+32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            directory.position(position+46);
+            directory.get(name);
+            long compressedSize = directory.getInt(position+20) & 0xFFFFFFFFL;
+            long entrySize = directory.getInt(position+24) & 0xFFFFFFFFL;
+            long offset = directory.getInt(position+42) & 0xFFFFFFFFL;
+            if (compressedSize == 0xFFFFFFFFL || entrySize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 archives are not supported");
+            }
+            PackZipEntry entry = new PackZipEntry(new String(name, StandardCharsets.UTF_8),
+                                                  directory.getShort(position+10) & 0xFFFF,
+                                                  directory.getInt(position+16) & 0xFFFFFFFFL,
+                                                  compressedSize, entrySize,
+                                                  directory.getInt(position+12) & 0xFFFFFFFFL,
+                                                  offset);
+            entries.put(entry.getName(), entry);
+            position += 46+nameLength+extraLength+commentLength;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position+buffer.position()) < 0) { throw new ZipException("Unexpected end of archive"); }
+        }
+        return buffer.flip();
+    }
+
+    public Collection<PackZipEntry> entries() { return entries.values(); }
+
+    public PackZipEntry get(String name) { return entries.get(name); }
+
+    /** @return The entry's data exactly as stored in the archive */
+    public byte[] readRaw(PackZipEntry entry) throws IOException {
+        ByteBuffer header = read(entry.getOffset(), 30);
+        if (header.getInt(0) != LOCAL_SIGNATURE) { throw new ZipException("Invalid local header for "+entry.getName()); }
+        long dataOffset = entry.getOffset()+30+(header.getShort(26) & 0xFFFF)+(header.getShort(28) & 0xFFFF);
+        return read(dataOffset, (int) entry.getCompressedSize()).array();
+    }
+
+    /** @return The entry's uncompressed data */
+    public byte[] read(PackZipEntry entry) throws IOException {
+        byte[] raw = readRaw(entry);
+        if (entry.getMethod() == PackZipEntry.STORED) { return raw; }
+        if (entry.getMethod() != PackZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method "+entry.getMethod()+" for "+entry.getName());
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw);
+            byte[] result = new byte[(int) entry.getSize()];
+            int length = 0;
+            while (length < result.length) {
+                int inflated = inflater.inflate(result, length, result.length-length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) { break; }
+                length += inflated;
+            }
+            if (length != result.length) { throw new ZipException("Invalid size for "+entry.getName()); }
+            return result;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed data for "+entry.getName());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
@@ -0,0 +1,201 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes zip archives, either compressing entries itself or taking data that is already compressed.
+ * Every entry is written as a regular file readable by everyone, and the SHA-1 of the archive is computed while writing.
+ * ZIP64 is not supported, so archives are limited to 65534 entries and 4 GiB.
+ */
+public class PackZipWriter implements Closeable {
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int VERSION_MADE_BY = (3 << 8) | 20; // Unix, so external attributes hold file permissions
+    private static final long FILE_ATTRIBUTES = 0100644L << 16;
+    // The maximum values are reserved to mark ZIP64 fields
+    private static final long MAX_SHORT = 0xFFFF;
+    private static final long MAX_INT = 0xFFFFFFFFL;
+
+    private final MessageDigest digest = Hashes.sha1();
+    private final OutputStream out;
+    private final List<PackZipEntry> written = new LinkedList<>();
+    private long offset = 0;
+    private boolean finished;
+    private String sha1;
+
+    public PackZipWriter(OutputStream out) { this.out = new BufferedOutputStream(new DigestOutputStream(out, digest)); }
+
+    /**
+     * Compresses and writes a new entry, timestamped with the current time.
+     * @return The written entry
+     */
+    public PackZipEntry write(String name, byte[] bytes) throws IOException {
+        CompressedEntry compressed = compress(name, bytes, Deflater.DEFAULT_COMPRESSION, PackZipEntry.toDosTime(LocalDateTime.now()));
+        return writeRaw(compressed.getEntry(), compressed.getData());
+    }
+
+    /**
+     * Compresses an entry without writing it, which can be done from any thread.
+     * The entry is stored uncompressed instead if compressing doesn't make it smaller.
+     * @param level Deflate compression level
+     * @param dosTime Modification time in MS-DOS format
+     */
+    public static CompressedEntry compress(String name, byte[] bytes, int level, long dosTime) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length/2+64);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            while (!deflater.finished()) { compressed.write(buffer, 0, deflater.deflate(buffer)); }
+        } finally {
+            deflater.end();
+        }
+        if (compressed.size() >= bytes.length) {
+            return new CompressedEntry(new PackZipEntry(name, PackZipEntry.STORED, crc.getValue(), bytes.length, bytes.length, dosTime, 0), bytes);
+        }
+        return new CompressedEntry(new PackZipEntry(name, PackZipEntry.DEFLATED, crc.getValue(), compressed.size(), bytes.length, dosTime, 0),
+                                   compressed.toByteArray());
+    }
+
+    /**
+     * Writes an entry whose data is already compressed with the entry's method.
+     * @return The written entry
+     * @throws IOException If the archive would need ZIP64
+     */
+    public PackZipEntry writeRaw(PackZipEntry entry, byte[] data) throws IOException {
+        PackZipEntry result = entry.withOffset(offset);
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        checkLimit(written.size()+1, MAX_SHORT, "Number of entries");
+        checkLimit(offset, MAX_INT, "Offset of "+entry.getName());
+        checkLimit(Math.max(entry.getSize(), entry.getCompressedSize()), MAX_INT, "Size of "+entry.getName());
+        checkLimit(name.length, MAX_SHORT, "Name length of "+entry.getName());
+        writeInt(0x04034b50);
+        writeShort(20);
+        writeShort(UTF8_FLAG);
+        writeShort(entry.getMethod());
+        writeInt(entry.getDosTime());
+        writeInt(entry.getCrc());
+        writeInt(entry.getCompressedSize());
+        writeInt(entry.getSize());
+        writeShort(name.length);
+        writeShort(0);
+        write(name);
+        write(data);
+        written.add(result);
+        return result;
+    }
+
+    /**
+     * Writes the central directory, which ends the archive, unless that was done already.
+     * @return SHA-1 of the whole archive
+     * @throws IOException If the archive would need ZIP64
+     */
+    public String finish() throws IOException {
+        if (finished) { return sha1; }
+        finished = true;
+        writeDirectory();
+        out.flush();
+        sha1 = Hashes.toHex(digest.digest());
+        return sha1;
+    }
+
+    /**
+     * Ends the archive if it wasn't already, and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeDirectory() throws IOException {
+        long directoryOffset = offset;
+        for (PackZipEntry entry : written) {
+            byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+            writeInt(0x02014b50);
+            writeShort(VERSION_MADE_BY);
+            writeShort(20);
+            writeShort(UTF8_FLAG);
+            writeShort(entry.getMethod());
+            writeInt(entry.getDosTime());
+            writeInt(entry.getCrc());
+            writeInt(entry.getCompressedSize());
+            writeInt(entry.getSize());
+            writeShort(name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(FILE_ATTRIBUTES);
+            writeInt(entry.getOffset());
+            write(name);
+        }
+        long directorySize = offset-directoryOffset;
+        checkLimit(directoryOffset, MAX_INT, "Offset of the central directory");
+        checkLimit(directorySize, MAX_INT, "Size of the central directory");
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(written.size());
+        writeShort(written.size());
+        writeInt(directorySize);
+        writeInt(directoryOffset);
+        writeShort(0);
+    }
+
+    /** @return SHA-1 of the whole archive, available once finished */
+    public String getSha1() { return sha1; }
+
+    private static void checkLimit(long value, long max, String what) throws IOException {
+        if (value >= max) { throw new IOException(what+" is too large for a zip without ZIP64: "+value); }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        offset += bytes.length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) value & 0xFFFF);
+        writeShort((int) (value >>> 16) & 0xFFFF);
+    }
+
+    /**
+     * An entry and its compressed data, ready to be written.
+     */
+    public static class CompressedEntry {
+        private final PackZipEntry entry;
+        private final byte[] data;
+
+        public CompressedEntry(PackZipEntry entry, byte[] data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        public PackZipEntry getEntry() { return entry; }
+
+        public byte[] getData() { return data; }
+
+        /** @return The same data under another name */
+        public CompressedEntry withName(String name) { return new CompressedEntry(entry.withName(name), data); }
+    }
+}
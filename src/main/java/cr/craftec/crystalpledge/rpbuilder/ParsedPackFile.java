@@ -0,0 +1,41 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+
+/**
+ * A pack file read and parsed ahead of time, so that can be done in parallel before the files are copied in order.
+ */
+public class ParsedPackFile implements PackFile {
+    private final byte[] bytes;
+    private final JsonObject json;
+    private final RuntimeException error;
+
+    private ParsedPackFile(byte[] bytes, JsonObject json, RuntimeException error) {
+        this.bytes = bytes;
+        this.json = json;
+        this.error = error;
+    }
+
+    public static ParsedPackFile parse(PackFile file) throws IOException {
+        byte[] bytes = file.read();
+        try {
+            return new ParsedPackFile(bytes, PackJson.parse(bytes), null);
+        } catch (RuntimeException e) {
+            return new ParsedPackFile(bytes, null, e);
+        }
+    }
+
+    @Override
+    public byte[] read() { return bytes; }
+
+    /**
+     * @return The parsed contents
+     * @throws RuntimeException The exception thrown while parsing, if the contents are not a valid JSON object
+     */
+    public JsonObject getJson() {
+        if (error != null) { throw error; }
+        return json;
+    }
+}
@@ -0,0 +1,504 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.*;
+
+/**
+ * Losslessly recompresses PNG files: drops ancillary chunks, converts to a palette or drops the alpha channel when
+ * every pixel can be represented exactly, picks the row filters that compress best and deflates at maximum level.
+ * Results are cached on disk by the hash of the original file, so unchanged textures are only optimized once.
+ */
+public class PngOptimizer {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int GRAYSCALE = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAYSCALE_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    private final Path cache;
+    private final Map<String,long[]> savings = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache Directory to cache optimized files in
+     */
+    public PngOptimizer(Path cache) { this.cache = cache; }
+
+    /**
+     * @param path Path of the file in the pack, to report savings by directory
+     * @return The optimized file, or the same bytes if they couldn't be made smaller
+     */
+    public byte[] optimize(String path, byte[] bytes) throws IOException {
+        Path cached = cache.resolve(Hashes.sha1(bytes)+".png");
+        byte[] result;
+        try {
+            result = Files.readAllBytes(cached);
+        } catch (NoSuchFileException e) {
+            result = optimize(bytes);
+            Files.createDirectories(cache);
+            Path temp = Files.createTempFile(cache, null, ".tmp");
+            Files.write(temp, result);
+            Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        int slash = path.lastIndexOf('/');
+        long[] directorySavings = savings.computeIfAbsent(slash < 0 ? "" : path.substring(0, slash), key -> new long[2]);
+        synchronized (directorySavings) {
+            directorySavings[0] += bytes.length;
+            directorySavings[1] += result.length;
+        }
+        return result;
+    }
+
+    /**
+     * @return Total size before and after optimizing of every directory with PNG files, by bytes saved
+     */
+    public Map<String,long[]> getSavings() {
+        List<Map.Entry<String,long[]>> entries = new ArrayList<>(savings.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue()[1]-entry.getValue()[0]));
+        Map<String,long[]> result = new LinkedHashMap<>();
+        for (Map.Entry<String,long[]> entry : entries) { result.put(entry.getKey(), entry.getValue()); }
+        return result;
+    }
+
+    /**
+     * @return The optimized file, or the same bytes if they are not a PNG this can handle or couldn't be made smaller
+     */
+    public static byte[] optimize(byte[] bytes) {
+        Image image;
+        try {
+            image = read(bytes);
+        } catch (IOException | RuntimeException e) {
+            return bytes;
+        }
+        if (image == null) { return bytes; }
+
+        byte[] best = bytes;
+        for (Image candidate : getCandidates(image)) {
+            for (boolean adaptive : new boolean[]{true, false}) {
+                byte[] encoded = write(candidate, adaptive);
+                if (encoded.length < best.length) { best = encoded; }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return The pixels of a PNG file, or null if it is not a PNG this can handle
+     */
+    public static Bitmap decode(byte[] bytes) {
+        try {
+            Image image = read(bytes);
+            if (image == null) { return null; }
+            Bitmap bitmap = new Bitmap(image.width, image.height);
+            for (int y = 0; y < image.height; y++) {
+                for (int x = 0; x < image.width; x++) { bitmap.argb[y*image.width+x] = getArgb(image, x, y); }
+            }
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The pixels as an 8 bit RGBA PNG file, to be optimized like any other
+     */
+    public static byte[] encode(Bitmap bitmap) {
+        Image image = new Image(bitmap.width, bitmap.height, 8, RGBA);
+        image.pixels = new byte[bitmap.argb.length*4];
+        for (int i = 0; i < bitmap.argb.length; i++) {
+            int argb = bitmap.argb[i];
+            image.pixels[i*4] = (byte) (argb >>> 16);
+            image.pixels[i*4+1] = (byte) (argb >>> 8);
+            image.pixels[i*4+2] = (byte) argb;
+            image.pixels[i*4+3] = (byte) (argb >>> 24);
+        }
+        return write(image, true);
+    }
+
+    private static Image read(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (byte b : SIGNATURE) {
+            if (buffer.get() != b) { return null; }
+        }
+        Image image = null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream(bytes.length);
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt();
+            byte[] typeBytes = new byte[4];
+            buffer.get(typeBytes);
+            String type = new String(typeBytes, StandardCharsets.US_ASCII);
+            byte[] chunk = new byte[length];
+            buffer.get(chunk);
+            buffer.getInt(); // CRC
+            switch (type) {
+                case "IHDR":
+                    ByteBuffer header = ByteBuffer.wrap(chunk);
+                    image = new Image(header.getInt(), header.getInt(), header.get() & 0xFF, header.get() & 0xFF);
+                    if (header.get() != 0 || header.get() != 0 || header.get() != 0) { return null; } // Interlaced or unknown
+                    break;
+                case "PLTE":
+                    if (image == null) { return null; }
+                    image.palette = chunk;
+                    break;
+                case "tRNS":
+                    if (image == null) { return null; }
+                    image.transparency = chunk;
+                    break;
+                case "IDAT":
+                    data.write(chunk);
+                    break;
+                case "IEND":
+                    if (image == null) { return null; }
+                    image.pixels = unfilter(inflate(data.toByteArray()), image);
+                    return image;
+                default:
+                    // Ancillary chunks are not needed to display the image, unknown critical ones can't be handled
+                    if (Character.isUpperCase(type.charAt(0))) { return null; }
+            }
+        }
+        return null;
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length*4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) { throw new EOFException("Truncated image data"); }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return The image's rows without their filter type bytes
+     */
+    private static byte[] unfilter(byte[] data, Image image) throws IOException {
+        int rowBytes = image.getRowBytes();
+        int bpp = image.getBytesPerPixel();
+        if (data.length < (long) (rowBytes+1)*image.height) { throw new EOFException("Truncated image data"); }
+        byte[] pixels = new byte[rowBytes*image.height];
+        for (int y = 0; y < image.height; y++) {
+            int filter = data[y*(rowBytes+1)];
+            int in = y*(rowBytes+1)+1;
+            int out = y*rowBytes;
+            for (int x = 0; x < rowBytes; x++) {
+                int a = x >= bpp ? pixels[out+x-bpp] & 0xFF : 0;
+                int b = y > 0 ? pixels[out+x-rowBytes] & 0xFF : 0;
+                int c = x >= bpp && y > 0 ? pixels[out+x-rowBytes-bpp] & 0xFF : 0;
+                int raw = data[in+x] & 0xFF;
+                switch (filter) {
+                    case 0: break;
+                    case 1: raw += a; break;
+                    case 2: raw += b; break;
+                    case 3: raw += (a+b) >>> 1; break;
+                    case 4: raw += paeth(a, b, c); break;
+                    default: throw new IOException("Unknown filter type "+filter);
+                }
+                pixels[out+x] = (byte) raw;
+            }
+        }
+        return pixels;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a+b-c;
+        int pa = Math.abs(p-a);
+        int pb = Math.abs(p-b);
+        int pc = Math.abs(p-c);
+        if (pa <= pb && pa <= pc) { return a; }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * @return Exact representations of the image: itself, and when possible without alpha channel and with a palette
+     */
+    private static List<Image> getCandidates(Image image) {
+        List<Image> candidates = new LinkedList<>();
+        candidates.add(image);
+        if (image.bitDepth != 8 || image.colorType == PALETTE || image.transparency != null) { return candidates; }
+
+        int channels = image.getChannels();
+        int pixelCount = image.width*image.height;
+        boolean hasAlpha = image.colorType == RGBA || image.colorType == GRAYSCALE_ALPHA;
+        boolean opaque = true;
+        Map<Integer,Integer> colors = new LinkedHashMap<>();
+        for (int i = 0; i < pixelCount; i++) {
+            int color = getRgba(image, i*channels);
+            if ((color & 0xFF) != 0xFF) { opaque = false; }
+            if (colors.size() <= 256) { colors.putIfAbsent(color, colors.size()); }
+        }
+
+        if (hasAlpha && opaque) {
+            // Drop the alpha channel
+            int newChannels = channels-1;
+            Image withoutAlpha = new Image(image.width, image.height, 8, image.colorType == RGBA ? RGB : GRAYSCALE);
+            withoutAlpha.pixels = new byte[pixelCount*newChannels];
+            for (int i = 0; i < pixelCount; i++) { System.arraycopy(image.pixels, i*channels, withoutAlpha.pixels, i*newChannels, newChannels); }
+            candidates.add(withoutAlpha);
+        }
+
+        if (colors.size() <= 256 && (image.colorType == RGB || image.colorType == RGBA)) {
+            // Sort opaque colors last, so that the transparency chunk can be cut short
+            List<Integer> sorted = new ArrayList<>(colors.keySet());
+            sorted.sort(Comparator.comparingInt(color -> (color & 0xFF) == 0xFF ? 1 : 0));
+            Map<Integer,Integer> indices = new HashMap<>();
+            for (int i = 0; i < sorted.size(); i++) { indices.put(sorted.get(i), i); }
+            int bitDepth = sorted.size() <= 2 ? 1 : sorted.size() <= 4 ? 2 : sorted.size() <= 16 ? 4 : 8;
+
+            Image paletted = new Image(image.width, image.height, bitDepth, PALETTE);
+            paletted.palette = new byte[sorted.size()*3];
+            int transparent = 0;
+            for (int i = 0; i < sorted.size(); i++) {
+                int color = sorted.get(i);
+                paletted.palette[i*3] = (byte) (color >>> 24);
+                paletted.palette[i*3+1] = (byte) (color >>> 16);
+                paletted.palette[i*3+2] = (byte) (color >>> 8);
+                if ((color & 0xFF) != 0xFF) { transparent = i+1; }
+            }
+            if (transparent > 0) {
+                paletted.transparency = new byte[transparent];
+                for (int i = 0; i < transparent; i++) { paletted.transparency[i] = (byte) sorted.get(i).intValue(); }
+            }
+            int rowBytes = paletted.getRowBytes();
+            paletted.pixels = new byte[rowBytes*image.height];
+            int pixelsPerByte = 8/bitDepth;
+            for (int y = 0; y < image.height; y++) {
+                for (int x = 0; x < image.width; x++) {
+                    int index = indices.get(getRgba(image, (y*image.width+x)*channels));
+                    int shift = 8-bitDepth*(x%pixelsPerByte+1);
+                    paletted.pixels[y*rowBytes+x/pixelsPerByte] |= (byte) (index << shift);
+                }
+            }
+            candidates.add(paletted);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return Color of the 8 bit grayscale or true color pixel at the given offset, as RGBA
+     */
+    private static int getRgba(Image image, int offset) {
+        byte[] pixels = image.pixels;
+        switch (image.colorType) {
+            case GRAYSCALE: {
+                int gray = pixels[offset] & 0xFF;
+                return gray << 24 | gray << 16 | gray << 8 | 0xFF;
+            }
+            case GRAYSCALE_ALPHA: {
+                int gray = pixels[offset] & 0xFF;
+                return gray << 24 | gray << 16 | gray << 8 | pixels[offset+1] & 0xFF;
+            }
+            case RGB:
+                return (pixels[offset] & 0xFF) << 24 | (pixels[offset+1] & 0xFF) << 16 | (pixels[offset+2] & 0xFF) << 8 | 0xFF;
+            default:
+                return (pixels[offset] & 0xFF) << 24 | (pixels[offset+1] & 0xFF) << 16 | (pixels[offset+2] & 0xFF) << 8 | pixels[offset+3] & 0xFF;
+        }
+    }
+
+    /**
+     * @return Color of the pixel of any bit depth and color type as ARGB, which is how the game loads it
+     */
+    private static int getArgb(Image image, int x, int y) {
+        int index = x*image.getChannels();
+        switch (image.colorType) {
+            case PALETTE: {
+                int entry = getSample(image, y, index);
+                int alpha = image.transparency != null && entry < image.transparency.length ? image.transparency[entry] & 0xFF : 0xFF;
+                return alpha << 24 | (image.palette[entry*3] & 0xFF) << 16 | (image.palette[entry*3+1] & 0xFF) << 8 | image.palette[entry*3+2] & 0xFF;
+            }
+            case GRAYSCALE: {
+                int gray = getSample(image, y, index);
+                boolean transparent = image.transparency != null && image.transparency.length >= 2 && gray == getUnsignedShort(image.transparency, 0);
+                int value = to8Bit(gray, image.bitDepth);
+                return (transparent ? 0 : 0xFF000000) | value << 16 | value << 8 | value;
+            }
+            case RGB: {
+                int red = getSample(image, y, index);
+                int green = getSample(image, y, index+1);
+                int blue = getSample(image, y, index+2);
+                boolean transparent = image.transparency != null && image.transparency.length >= 6 && red == getUnsignedShort(image.transparency, 0)
+                        && green == getUnsignedShort(image.transparency, 2) && blue == getUnsignedShort(image.transparency, 4);
+                return (transparent ? 0 : 0xFF000000) | to8Bit(red, image.bitDepth) << 16 | to8Bit(green, image.bitDepth) << 8 | to8Bit(blue, image.bitDepth);
+            }
+            case GRAYSCALE_ALPHA: {
+                int value = to8Bit(getSample(image, y, index), image.bitDepth);
+                return to8Bit(getSample(image, y, index+1), image.bitDepth) << 24 | value << 16 | value << 8 | value;
+            }
+            default:
+                return to8Bit(getSample(image, y, index+3), image.bitDepth) << 24 | to8Bit(getSample(image, y, index), image.bitDepth) << 16
+                        | to8Bit(getSample(image, y, index+1), image.bitDepth) << 8 | to8Bit(getSample(image, y, index+2), image.bitDepth);
+        }
+    }
+
+    /**
+     * @param index Index of the sample within its row
+     * @return Value of the sample at the image's bit depth
+     */
+    private static int getSample(Image image, int y, int index) {
+        int offset = y*image.getRowBytes();
+        switch (image.bitDepth) {
+            case 16: return getUnsignedShort(image.pixels, offset+index*2);
+            case 8: return image.pixels[offset+index] & 0xFF;
+            default:
+                int perByte = 8/image.bitDepth;
+                int shift = 8-image.bitDepth*(index%perByte+1);
+                return (image.pixels[offset+index/perByte] & 0xFF) >>> shift & (1 << image.bitDepth)-1;
+        }
+    }
+
+    private static int getUnsignedShort(byte[] bytes, int offset) { return (bytes[offset] & 0xFF) << 8 | bytes[offset+1] & 0xFF; }
+
+    private static int to8Bit(int sample, int bitDepth) {
+        if (bitDepth == 16) { return sample >>> 8; }
+        return bitDepth == 8 ? sample : sample*255/((1 << bitDepth)-1);
+    }
+
+    /**
+     * @param adaptive Whether to pick the filter of each row by the minimum sum of absolute differences heuristic,
+     *                 or to leave every row unfiltered
+     */
+    private static byte[] write(Image image, boolean adaptive) {
+        int rowBytes = image.getRowBytes();
+        int bpp = image.getBytesPerPixel();
+        byte[] filtered = new byte[(rowBytes+1)*image.height];
+        byte[] row = new byte[rowBytes];
+        byte[] bestRow = new byte[rowBytes];
+        for (int y = 0; y < image.height; y++) {
+            int bestFilter = 0;
+            System.arraycopy(image.pixels, y*rowBytes, bestRow, 0, rowBytes);
+            if (adaptive) {
+                long bestSum = Long.MAX_VALUE;
+                for (int filter = 0; filter < 5; filter++) {
+                    long sum = 0;
+                    for (int x = 0; x < rowBytes; x++) {
+                        int raw = image.pixels[y*rowBytes+x] & 0xFF;
+                        int a = x >= bpp ? image.pixels[y*rowBytes+x-bpp] & 0xFF : 0;
+                        int b = y > 0 ? image.pixels[(y-1)*rowBytes+x] & 0xFF : 0;
+                        int c = x >= bpp && y > 0 ? image.pixels[(y-1)*rowBytes+x-bpp] & 0xFF : 0;
+                        int value;
+                        switch (filter) {
+                            case 0: value = raw; break;
+                            case 1: value = raw-a; break;
+                            case 2: value = raw-b; break;
+                            case 3: value = raw-((a+b) >>> 1); break;
+                            default: value = raw-paeth(a, b, c);
+                        }
+                        row[x] = (byte) value;
+                        sum += Math.abs((byte) value);
+                    }
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        bestFilter = filter;
+                        System.arraycopy(row, 0, bestRow, 0, rowBytes);
+                    }
+                }
+            }
+            filtered[y*(rowBytes+1)] = (byte) bestFilter;
+            System.arraycopy(bestRow, 0, filtered, y*(rowBytes+1)+1, rowBytes);
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(filtered.length/2+64);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(filtered);
+            deflater.finish();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) { compressed.write(buffer, 0, deflater.deflate(buffer)); }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.size()+128);
+        out.writeBytes(SIGNATURE);
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(image.width).putInt(image.height).put((byte) image.bitDepth).put((byte) image.colorType).put((byte) 0).put((byte) 0).put((byte) 0);
+        writeChunk(out, "IHDR", header.array());
+        if (image.palette != null) { writeChunk(out, "PLTE", image.palette); }
+        if (image.transparency != null) { writeChunk(out, "tRNS", image.transparency); }
+        writeChunk(out, "IDAT", compressed.toByteArray());
+        writeChunk(out, "IEND", new byte[0]);
+        return out.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+        out.writeBytes(typeBytes);
+        out.writeBytes(data);
+        out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    /**
+     * Pixels of an image as ARGB, row by row.
+     */
+    public static class Bitmap {
+        private final int width;
+        private final int height;
+        private final int[] argb;
+
+        public Bitmap(int width, int height) {
+            this.width = width;
+            this.height = height;
+            argb = new int[width*height];
+        }
+
+        public int getWidth() { return width; }
+
+        public int getHeight() { return height; }
+
+        public int[] getArgb() { return argb; }
+    }
+
+    /**
+     * A non-interlaced PNG image with unfiltered rows.
+     */
+    private static class Image {
+        private final int width;
+        private final int height;
+        private final int bitDepth;
+        private final int colorType;
+        private byte[] palette;
+        private byte[] transparency;
+        private byte[] pixels;
+
+        private Image(int width, int height, int bitDepth, int colorType) {
+            this.width = width;
+            this.height = height;
+            this.bitDepth = bitDepth;
+            this.colorType = colorType;
+        }
+
+        private int getChannels() {
+            switch (colorType) {
+                case RGB: return 3;
+                case GRAYSCALE_ALPHA: return 2;
+                case RGBA: return 4;
+                default: return 1;
+            }
+        }
+
+        private int getRowBytes() { return (int) (((long) width*getChannels()*bitDepth+7)/8); }
+
+        private int getBytesPerPixel() { return Math.max(1, getChannels()*bitDepth/8); }
+    }
+}
@@ -1,18 +1,25 @@
 package cr.craftec.crystalpledge.rpbuilder;
 
 import com.google.gson.*;
-import com.google.gson.stream.MalformedJsonException;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 public class ResourcePackBuilder {
     private static final String CRYSTAL_PLEDGE_ZIP = "CrystalPledge.zip";
@@ -20,35 +27,193 @@ public class ResourcePackBuilder {
     private static final List<String> mainFiles = List.of("LICENSE.txt",
                                                           "pack.mcmeta",
                                                           "pack.png");
+    private static final List<String> libraryKeys = List.of("vanilla_tweaks",
+                                                            "negative_space",
+                                                            "bonus_mushroom_blocks");
+    private static final List<String> layerKeys = List.of("main",
+                                                          "vanilla_tweaks",
+                                                          "negative_space",
+                                                          "bonus_mushroom_blocks",
+                                                          "assets");
+    // Files of each variant, named after its zip
+    private static final String MANIFEST = ".rpbuilder/%s.manifest.json";
+    private static final String REPORT = "%s.report.json";
+    private static final String GLYPHS = "%s.glyphs.json";
+    private static final String CUSTOM_MODEL_DATA = "%s.custom_model_data.json";
+    private static final String PNG_CACHE = ".rpbuilder/png-cache";
+    private static final String RECORDING = "CrystalPledge.jfr";
+    private static final long WATCH_DEBOUNCE_MILLIS = 100;
+    private static final long RELEASE_DOS_TIME = PackZipEntry.toDosTime(LocalDateTime.of(1980, 1, 1, 0, 0));
     private static JsonObject config;
     private static final Map<WarningType,List<String>> warningSuppressions = new HashMap<>();
+    private static List<String> pendingLog;
+    private static Workers workers;
+    private static Path directory = Path.of("");
+    private static PrintStream out = System.out;
+    private static boolean install = true;
+    private static boolean release;
+    /** Whether the builder keeps running after the first build, keeping what it parsed for the next ones */
+    private static boolean daemon;
+    private static PackServer server;
+    /** Held while building, since watching and the server can both start builds */
+    private static final Object buildLock = new Object();
+    private static List<Variant> variants;
+    private static Variant variant;
+    private static BuildReport report;
+    // Shared by every variant built in the same run
+    private static final Map<String,BuildManifest.InputState> inputStates = new ConcurrentHashMap<>();
+    private static final Map<String,ParsedPackFile> parsedSources = new ConcurrentHashMap<>();
+    /** Sources parsed by the previous run, by id and hash of their input, when running as a daemon */
+    private static Map<String,ParsedPackFile> previousParsedSources = Map.of();
+    private static final Map<PackFile,String> sourceHashes = Collections.synchronizedMap(new IdentityHashMap<>());
+    private static final Map<String,PackZipWriter.CompressedEntry> compressedEntries = new ConcurrentHashMap<>();
 
-    private static final Map<Path,JsonObject> langs = new HashMap<>();
-    private static final Map<Path,JsonObject> fonts = new HashMap<>();
-    private static final Map<Path,Set<String>> chars = new HashMap<>();
-    private static final Map<Path,JsonObject> sounds = new HashMap<>();
+    private static PackTree tree = new PackTree();
 
-    private static void warn(WarningType warningType, String id, String detail) {
+    static void warn(WarningType warningType, String id, String detail) {
         id = id.replace('\\', '/');
         List<String> supressions = warningSuppressions.get(warningType);
         if (supressions != null) {
             for (String suppression : supressions) {
-                if (suppression.equals(id)) { return; }
+                if (suppression.equals(id)) {
+                    if (report != null) { report.countWarning(warningType, true); }
+                    return;
+                }
             }
         }
-        System.out.println("[WARNING] "+warningType.getMessage()+id+((detail == null ? "" : ": "+detail)));
+        if (report != null) { report.countWarning(warningType, false); }
+        log("[WARNING] "+warningType.getMessage()+id+((detail == null ? "" : ": "+detail)));
+    }
+
+    private static void log(String line) {
+        if (pendingLog == null) {
+            out.println(line);
+        } else {
+            pendingLog.add(line);
+        }
     }
 
     public synchronized static void main(String[] args) throws IOException {
-        if (System.console() == null) {
-            // Start new instance from cmd
+        if (System.console() == null && args.length == 0 && System.getProperty("os.name").startsWith("Windows")) {
+            // Opened by double-clicking the jar, start new instance from cmd to show the output
             Runtime.getRuntime().exec(new String[]{"cmd", "/c", "start", "cmd", "/k", "java -jar \""
                     +URLDecoder.decode(ResourcePackBuilder.class.getProtectionDomain().getCodeSource().getLocation().toString().substring("file:/".length()), StandardCharsets.UTF_8)
                     +"\" && pause && exit"});
             return;
         }
 
-        File configFile = new File(CONFIG);
+        run(Path.of(""), Arrays.asList(args), System.out);
+    }
+
+    /**
+     * Runs the builder on the pack in the given directory, as if it was run from there.
+     * @param out Stream to print progress and warnings to
+     */
+    static void run(Path directory, List<String> arguments, PrintStream out) throws IOException {
+        ResourcePackBuilder.directory = directory;
+        ResourcePackBuilder.out = out;
+        install = !arguments.contains("--no-install");
+        release = arguments.contains("--release");
+        daemon = arguments.contains("--watch") || arguments.contains("--serve");
+        if (!loadConfig()) { return; }
+
+        Recording recording = arguments.contains("--jfr") ? startRecording() : null;
+        build(arguments.contains("--clean"), release);
+        if (recording != null) {
+            recording.dump(resolve(RECORDING));
+            recording.close();
+            log("Saved JFR recording to "+RECORDING+'.');
+        }
+        if (!arguments.contains("--serve")) {
+            if (arguments.contains("--watch")) { watch(); }
+            return;
+        }
+        serve();
+        try {
+            if (arguments.contains("--watch")) {
+                watch();
+            } else {
+                server.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * Starts serving the built zips over HTTP, at the address and port set in the config.
+     */
+    private static void serve() throws IOException {
+        String address = config.has("serve_address") ? config.get("serve_address").getAsString() : "127.0.0.1";
+        int port = config.has("serve_port") ? config.get("serve_port").getAsInt() : 8080;
+        server = new PackServer(new InetSocketAddress(address, port), clean -> {
+            synchronized (buildLock) {
+                log("\nRebuild requested.");
+                if (!loadConfig()) { throw new IOException("Invalid "+CONFIG); }
+                build(clean, release);
+                publish();
+                StringBuilder built = new StringBuilder();
+                for (Map.Entry<String,PackServer.Zip> zip : new TreeMap<>(server.getZips()).entrySet()) {
+                    built.append(zip.getKey()).append(' ').append(zip.getValue().getSha1()).append('\n');
+                }
+                return built.toString();
+            }
+        });
+        publish();
+        log("\nServing "+variants.get(0).getOutput()+" at http://"+address+':'+server.getAddress().getPort()+'/'+variants.get(0).getOutput()
+                +", POST to /rebuild to rebuild it.");
+    }
+
+    /**
+     * Serves the zips of the latest build, only reading the ones that changed.
+     */
+    private static void publish() throws IOException {
+        Map<String,PackServer.Zip> zips = new HashMap<>();
+        for (Variant published : variants) {
+            Path zip = resolve(published.getOutput());
+            Path sha1File = resolve(published.getOutput()+".sha1");
+            if (!Files.exists(zip) || !Files.exists(sha1File)) { continue; }
+            String sha1 = Files.readString(sha1File).trim();
+            PackServer.Zip served = server.getZips().get(published.getOutput());
+            if (served == null || !served.getSha1().equals(sha1)) {
+                served = new PackServer.Zip(Files.readAllBytes(zip), sha1, Files.getLastModifiedTime(zip).toInstant());
+            }
+            zips.put(published.getOutput(), served);
+        }
+        server.setZips(zips);
+    }
+
+    private static Recording startRecording() throws IOException {
+        try {
+            Recording recording = new Recording(Configuration.getConfiguration("profile"));
+            recording.setName("CrystalPledge build");
+            recording.start();
+            return recording;
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return The path of a file of the pack being built, relative to the working directory
+     */
+    private static Path resolve(String path) { return directory.resolve(path); }
+
+    /**
+     * @param format Path of a file of the variant being built, with %s for its name
+     * @return The file's path relative to the working directory
+     */
+    private static Path resolveOutput(String format) { return resolve(String.format(format, variant.getName())); }
+
+    /**
+     * Loads the config file, saving the default one first if it doesn't exist.
+     * @return Whether the config is valid
+     */
+    private static boolean loadConfig() throws IOException {
+        File configFile = resolve(CONFIG).toFile();
         if (!configFile.exists()) {
             // Save default config
             try (InputStream in = ResourcePackBuilder.class.getClassLoader().getResourceAsStream(CONFIG);
@@ -59,10 +224,12 @@ public class ResourcePackBuilder {
         // Load config
         try (InputStreamReader reader = new InputStreamReader(new FileInputStream(configFile))) {
             config = JsonParser.parseReader(reader).getAsJsonObject();
-        } catch (MalformedJsonException | IllegalStateException ignored) {
+        } catch (JsonParseException | IllegalStateException ignored) {
             warn(WarningType.INVALID, CONFIG, null);
+            return false;
         }
         // Load warning suppressions
+        warningSuppressions.clear();
         for (Map.Entry<String,JsonElement> entry : config.getAsJsonObject("warning_suppressions").entrySet()) {
             String key = entry.getKey();
             List<String> suppressions = new LinkedList<>();
@@ -75,134 +242,807 @@ public class ResourcePackBuilder {
                 warn(WarningType.INVALID, CONFIG, "key \""+key+"\"");
             }
         }
+        // Load variants
+        List<Variant> newVariants = new ArrayList<>();
+        if (config.has("variants")) {
+            Set<String> outputs = new HashSet<>();
+            for (JsonElement element : config.getAsJsonArray("variants")) {
+                try {
+                    Variant newVariant = Variant.parse(element, layerKeys);
+                    if (!outputs.add(newVariant.getOutput())) { throw new JsonSyntaxException(newVariant.getOutput()+" is built by another variant"); }
+                    newVariants.add(newVariant);
+                } catch (RuntimeException e) {
+                    warn(WarningType.INVALID, CONFIG, e.getMessage());
+                }
+            }
+            if (newVariants.isEmpty()) {
+                warn(WarningType.INVALID, CONFIG, "no variants");
+                return false;
+            }
+        } else {
+            newVariants.add(new Variant(CRYSTAL_PLEDGE_ZIP, layerKeys, null, List.of(), -1));
+        }
+        variants = newVariants;
+        // Start worker threads
+        Workers newWorkers = new Workers(config.has("workers") ? config.get("workers").getAsInt() : 0);
+        if (workers != null) { workers.shutdown(); }
+        workers = newWorkers;
+        return true;
+    }
 
-        Path temp = Files.createTempDirectory("CrystalPledgeRP");
-        deleteFile(temp.toFile());
+    /**
+     * Keeps rebuilding the resource pack whenever its inputs change, until the process is stopped.
+     */
+    private static void watch() throws IOException {
+        try (PackWatcher watcher = new PackWatcher()) {
+            watcher.watchTree(resolve("assets"));
+            watchFiles(watcher);
+            log("\nWatching for changes, press Ctrl+C to stop...");
+            while (true) {
+                Set<Path> changes = watcher.awaitChanges(WATCH_DEBOUNCE_MILLIS);
+                log("");
+                long start = System.nanoTime();
+                synchronized (buildLock) {
+                    if (changes == null || changes.contains(resolve(CONFIG).toAbsolutePath().normalize())) {
+                        if (!loadConfig()) { continue; }
+                        watcher.clearFiles();
+                        watchFiles(watcher);
+                    }
+                    try {
+                        build(false, release);
+                        if (server != null) { publish(); }
+                    } catch (IOException | RuntimeException e) {
+                        log("[ERROR] Build failed: "+e);
+                        continue;
+                    }
+                }
+                log("Done in "+(System.nanoTime()-start)/1000000+" ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    private static void watchFiles(PackWatcher watcher) throws IOException {
+        watcher.watchFile(resolve(CONFIG));
+        for (String fileName : mainFiles) { watcher.watchFile(resolve(fileName)); }
+        for (String library : libraryKeys) { watcher.watchFile(resolve(config.get(library).getAsString())); }
+        for (Variant watched : variants) {
+            if (watched.getOverlay() != null && Files.isDirectory(resolve(watched.getOverlay()))) { watcher.watchTree(resolve(watched.getOverlay())); }
+        }
+    }
+
+    /**
+     * Builds every variant of the resource pack, only processing the files affected by changes since its previous build.
+     * Inputs are read and parsed once for all of them, and files that come out the same in several variants are only
+     * compressed once.
+     * @param clean Whether to ignore the previous build and process everything
+     * @param release Whether to build reproducible zips for distribution: sorted, with fixed timestamps, minified JSON
+     *                and maximum compression. Release builds are always made from scratch, unless nothing changed.
+     */
+    private static void build(boolean clean, boolean release) throws IOException {
+        List<PackZipReader> libraries = new LinkedList<>();
+        report = new BuildReport();
         try {
-            File zip = new File(CRYSTAL_PLEDGE_ZIP);
-            if (zip.exists() && !zip.delete()) { throw new IOException("Failed to delete old "+CRYSTAL_PLEDGE_ZIP); }
-
-            System.out.println("Copying main resource pack files...");
-            for (String fileName : mainFiles) {
-                try (InputStream in = new FileInputStream(fileName)) { copy(temp, Path.of(fileName), in); }
-            }
-
-            System.out.println("Copying Vanilla Tweaks...");
-            String vanillaTweaksPath = config.get("vanilla_tweaks").getAsString();
-            try (ZipFile vanillaTweaks = new ZipFile(vanillaTweaksPath)) {
-                for (Enumeration<? extends ZipEntry> enumeration = vanillaTweaks.entries(); enumeration.hasMoreElements(); ) {
-                    ZipEntry entry = enumeration.nextElement();
-                    String entryName = entry.getName();
-                    if (entry.isDirectory() || mainFiles.contains(entryName)) { continue; }
-                    try (InputStream in = vanillaTweaks.getInputStream(entry)) {
-                        copy(temp, Path.of(entryName), in);
-                    }
+            Map<String,Layer> layers;
+            // Layers are loaded once for every variant, so only the first variant's report has this phase
+            BuildReport.Phase phase = report.phase("load_layers");
+            layers = loadLayers(libraries);
+            phase.close();
+            PngOptimizer pngOptimizer = release || isEnabled("optimize_png") ? new PngOptimizer(resolve(PNG_CACHE)) : null;
+            for (int i = 0; i < variants.size(); i++) {
+                variant = variants.get(i);
+                if (i > 0) {
+                    report = new BuildReport();
+                    log("");
                 }
-            } catch (FileNotFoundException e) {
-                warn(WarningType.MISSING, vanillaTweaksPath, null);
-            }
-
-            System.out.println("Copying Negative Space Font...");
-            String negativeSpacePath = config.get("negative_space").getAsString();
-            try (ZipFile negativeSpaceFont = new ZipFile(negativeSpacePath)) {
-                for (Enumeration<? extends ZipEntry> enumeration = negativeSpaceFont.entries(); enumeration.hasMoreElements(); ) {
-                    ZipEntry entry = enumeration.nextElement();
-                    if (entry.isDirectory()) { continue; }
-                    String entryName = entry.getName();
-                    if (entryName.startsWith("assets/space/textures") || entryName.equals("assets/minecraft/font/default.json")) {
-                        try (InputStream in = negativeSpaceFont.getInputStream(entry)) {
-                            copy(temp, Path.of(entryName), in);
-                        }
-                    } else if (entryName.equals("LICENSE.txt")) {
-                        try (InputStream in = negativeSpaceFont.getInputStream(entry)) {
-                            copy(temp, Path.of("NegativeSpaceFont_LICENSE.txt"), in);
-                        }
-                    }
+                if (variants.size() > 1) { log("Building "+variant.getOutput()+"..."); }
+                build(getVariantLayers(layers), clean, release, install && i == 0, pngOptimizer);
+            }
+            if (pngOptimizer != null) { printPngSavings(pngOptimizer.getSavings()); }
+        } finally {
+            for (PackZipReader library : libraries) { library.close(); }
+            inputStates.clear();
+            previousParsedSources = daemon ? new HashMap<>(parsedSources) : Map.of();
+            parsedSources.clear();
+            sourceHashes.clear();
+            compressedEntries.clear();
+        }
+    }
+
+    /**
+     * Builds the variant being built from its layers.
+     * @param install Whether to also copy the variant to the .minecraft folder
+     * @param pngOptimizer Optimizer shared by every variant, or null to keep PNG files as they are
+     */
+    private static void build(List<Layer> layers, boolean clean, boolean release, boolean install, PngOptimizer pngOptimizer) throws IOException {
+        report.getSummary().addProperty("output", variant.getOutput());
+        report.getSummary().addProperty("release", release);
+        report.getSummary().addProperty("workers", workers.getCount());
+        BuildReport.Phase phase = report.phase("load");
+        Path zip = resolve(variant.getOutput());
+
+        // Compare inputs with the previous build
+        BuildManifest previous = BuildManifest.load(resolveOutput(MANIFEST));
+        BuildManifest manifest = new BuildManifest();
+        Set<String> inputs = new LinkedHashSet<>();
+        inputs.add(CONFIG);
+        for (Layer layer : layers) {
+            for (PackSource source : layer.getSources()) { inputs.add(source.getInput()); }
+        }
+        BuildManifest loaded = previous;
+        List<BuildManifest.InputState> states = workers.map(inputs, input -> {
+            BuildManifest.InputState state = inputStates.get(input);
+            if (state == null) {
+                // Another variant may already have hashed the input this run
+                state = BuildManifest.InputState.of(resolve(input), loaded == null ? null : loaded.getInputs().get(input));
+                inputStates.put(input, state);
+            }
+            return state;
+        });
+        Iterator<BuildManifest.InputState> stateIterator = states.iterator();
+        for (String input : inputs) {
+            BuildManifest.InputState state = stateIterator.next();
+            manifest.getInputs().put(input, state);
+            if (loaded == null || state != loaded.getInputs().get(input)) { phase.addBytesRead(state.getSize()); }
+        }
+        phase.addEntries(inputs.size());
+        if (clean || previous != null && (!previous.matchesZip(zip) || previous.isRelease() != release)) { previous = null; }
+        Set<String> changed = new HashSet<>();
+        if (previous != null) {
+            for (Map.Entry<String,BuildManifest.InputState> entry : manifest.getInputs().entrySet()) {
+                BuildManifest.InputState previousState = previous.getInputs().get(entry.getKey());
+                if (previousState == null || !previousState.getHash().equals(entry.getValue().getHash())) {
+                    changed.add(entry.getKey());
                 }
-            } catch (FileNotFoundException e) {
-                warn(WarningType.MISSING, negativeSpacePath, null);
             }
+            for (String input : previous.getInputs().keySet()) {
+                if (!manifest.getInputs().containsKey(input)) { changed.add(input); }
+            }
+            if (changed.isEmpty()) {
+                phase.close();
+                report.getSummary().addProperty("up_to_date", true);
+                report.save(resolveOutput(REPORT));
+                log(variant.getOutput()+" is up to date.");
+                if (release) { log("SHA-1: "+previous.getZipSha1()); }
+                return;
+            }
+            if (changed.contains(CONFIG) || release) { previous = null; }
+        }
+        manifest.setRelease(release);
+        phase.close();
+        report.getSummary().addProperty("up_to_date", false);
+        report.getSummary().addProperty("incremental", previous != null);
+        report.getSummary().addProperty("changed_inputs", changed.size());
 
-            System.out.println("Copying BONUS Mushroom Blocks...");
-            String bonusPath = config.get("bonus_mushroom_blocks").getAsString();
-            try (ZipFile bonus = new ZipFile(bonusPath)) {
-                for (Enumeration<? extends ZipEntry> enumeration = bonus.entries(); enumeration.hasMoreElements(); ) {
-                    ZipEntry entry = enumeration.nextElement();
-                    String entryName = entry.getName();
-                    if (entry.isDirectory() || mainFiles.contains(entryName) || entryName.equals("changelog.txt")) {
-                        continue;
-                    }
-                    try (InputStream in = bonus.getInputStream(entry)) {
-                        copy(temp, Path.of(entryName), in);
+        Set<String> affected = new HashSet<>();
+        if (previous == null) {
+            copyLayers(layers, null);
+        } else {
+            // Re-process changed inputs, and every source of the files they affect so merges are redone whole
+            for (Map.Entry<String,BuildManifest.Output> entry : previous.getOutputs().entrySet()) {
+                for (String sourceId : entry.getValue().getSources()) {
+                    if (changed.contains(sourceId.split("!", 2)[0])) { affected.add(entry.getKey()); }
+                }
+            }
+            List<String> log;
+            while (true) {
+                Set<String> affectedSources = new HashSet<>();
+                for (String path : affected) { affectedSources.addAll(previous.getOutputs().get(path).getSources()); }
+                log = new LinkedList<>();
+                pendingLog = log;
+                copyLayers(layers, source -> changed.contains(source.getInput()) || affectedSources.contains(source.getId()));
+                pendingLog = null;
+                // Changed inputs may now also be copied to files produced by other sources in the previous build
+                Set<String> extra = new HashSet<>();
+                for (String path : tree.getTouchedPaths()) {
+                    if (previous.getOutputs().containsKey(path) && !affected.contains(path)) { extra.add(path); }
+                }
+                if (extra.isEmpty()) { break; }
+                affected.addAll(extra);
+            }
+            for (String line : log) { log(line); }
+        }
+
+        if (variant.getPackFormat() >= 0 && tree.contains("pack.mcmeta")) { setPackFormat(variant.getPackFormat()); }
+        try (BuildReport.Phase compilePhase = report.phase("custom_model_data")) { compileItemModels(compilePhase); }
+
+        // Check references between assets, reusing the ones found by the previous build for unaffected files
+        phase = report.phase("references");
+        AssetGraph graph = new AssetGraph();
+        if (previous != null) {
+            for (Map.Entry<String,BuildManifest.Output> entry : previous.getOutputs().entrySet()) {
+                if (!affected.contains(entry.getKey())) { graph.put(entry.getKey(), entry.getValue().getReferences()); }
+            }
+        }
+        List<String> treePaths = new ArrayList<>();
+        for (Map.Entry<String,PackFile> entry : tree.entries()) { treePaths.add(entry.getKey()); }
+        Iterator<List<String>> targets = workers.map(treePaths, ResourcePackBuilder::findTargets).iterator();
+        for (String path : treePaths) { graph.put(path, targets.next()); }
+        phase.addEntries(treePaths.size());
+        GlyphMap glyphs = indexFonts(previous, affected, zip);
+        Files.write(resolveOutput(GLYPHS), PackJson.write(glyphs.toJson()));
+        report.getSummary().addProperty("glyph_collisions", glyphs.getCollisions().length);
+        if (release && isEnabled("pack_fonts")) {
+            try (BuildReport.Phase packPhase = report.phase("pack_fonts")) { packFonts(graph, packPhase); }
+        }
+        Set<String> unreachable = graph.findUnreachable();
+        if (release && isEnabled("prune_unreferenced")) {
+            // Release builds are always made from scratch, so the whole pack is in the tree
+            for (String path : unreachable) {
+                tree.remove(path);
+                graph.remove(path);
+            }
+            if (!unreachable.isEmpty()) { log("Left out "+unreachable.size()+" unreferenced files."); }
+        } else if (!unreachable.isEmpty()) {
+            log(unreachable.size()+" files are not referenced by anything, set prune_unreferenced to leave them out of release builds.");
+        }
+        if (release && isEnabled("deduplicate")) { deduplicate(graph); }
+        CustomModelData customModelData = new CustomModelData();
+        for (Map.Entry<String,PackFile> entry : readOutputs(CustomModelData::isItemModel, previous, affected, zip).entrySet()) {
+            try {
+                customModelData.add(entry.getKey(), parseJson(entry.getValue()));
+            } catch (IllegalStateException | JsonParseException ignored) {
+                // Invalid item models are left as they are
+            }
+        }
+        Files.write(resolveOutput(CUSTOM_MODEL_DATA), PackJson.write(customModelData.toJson(), false));
+        report.getSummary().addProperty("custom_model_data", customModelData.size());
+        checkReferences(graph);
+        phase.close();
+
+        // Copy to .minecraft, each file being installed while zipping
+        BuildReport.Phase installPhase = report.phase("install");
+        Path rpPath = null;
+        boolean installAll = true;
+        Path minecraftFolder = getMinecraftFolder();
+        if (install && Files.isDirectory(minecraftFolder)) {
+            rpPath = minecraftFolder.resolve("resourcepacks/CrystalPledge");
+            installAll = previous == null || !rpPath.toString().equals(previous.getInstall()) || !Files.isDirectory(rpPath);
+            if (installAll) { log("Found .minecraft folder. Files will also be copied to the resource pack folder."); }
+            try {
+                if (installAll) {
+                    deleteFile(rpPath.toFile());
+                } else {
+                    for (String path : affected) {
+                        if (!tree.contains(path)) { Files.deleteIfExists(rpPath.resolve(path)); }
                     }
                 }
-            } catch (FileNotFoundException e) {
-                warn(WarningType.MISSING, bonusPath, null);
+            } catch (IOException e) {
+                warn(WarningType.DELETE, rpPath.toString(), e.getMessage());
+                rpPath = null;
             }
+        }
+        manifest.setInstall(rpPath == null ? null : rpPath.toString());
+        installPhase.close();
 
-            System.out.println("Copying assets...");
-            for (Path path : Files.walk(Path.of("assets")).collect(Collectors.toList())) {
-                File file = path.toFile();
-                if (file.isDirectory() || path.endsWith(".bbmodel")) { continue; }
-                try (InputStream in = new FileInputStream(file)) {
-                    copy(temp, path, in);
+        log("Zipping files...");
+        BuildReport.Phase zipPhase = report.phase("zip");
+        Path tempZip = resolve(variant.getOutput()+".tmp");
+        int updated = 0;
+        String zipSha1;
+        try (PackZipWriter out = new PackZipWriter(Files.newOutputStream(tempZip));
+             PackZipReader previousZip = previous == null ? null : new PackZipReader(zip)) {
+            if (previous != null) {
+                // Unaffected files are copied from the previous zip without recompressing them
+                for (Map.Entry<String,BuildManifest.Output> entry : previous.getOutputs().entrySet()) {
+                    String path = entry.getKey();
+                    if (affected.contains(path)) { continue; }
+                    PackZipEntry zipEntry = previousZip.get(path);
+                    if (zipEntry == null) { throw new IOException(path+" is missing from "+variant.getOutput()+", rebuild with --clean"); }
+                    byte[] raw = previousZip.readRaw(zipEntry);
+                    out.writeRaw(zipEntry, raw);
+                    zipPhase.addBytesRead(raw.length);
+                    manifest.getOutputs().put(path, entry.getValue());
+                    if (rpPath != null && installAll) { install(installPhase, rpPath, path, previousZip.read(zipEntry)); }
                 }
             }
-            for (Map.Entry<Path,JsonObject> entry : langs.entrySet()) {
-                Path path = temp.resolve(entry.getKey());
-                File langFile = path.toFile();
-                makeParent(langFile);
-                try (Writer writer = new FileWriter(langFile)) {
-                    writer.write(new GsonBuilder().setPrettyPrinting().create().toJson(entry.getValue()).replace("\\\\", "\\"));
+            // Read, hash and compress in parallel, then write in tree order
+            BuildManifest previousBuild = previous;
+            boolean installing = rpPath != null;
+            long dosTime = release ? RELEASE_DOS_TIME : PackZipEntry.toDosTime(LocalDateTime.now());
+            List<Map.Entry<String,PackFile>> entries = new ArrayList<>(tree.entries());
+            if (release) { entries.sort(Map.Entry.comparingByKey()); }
+            boolean shared = variants.size() > 1;
+            BuildReport.Phase optimizePhase = pngOptimizer == null ? null : report.getPhase("optimize_png");
+            List<PreparedFile> prepared = workers.map(entries, entry -> {
+                String path = entry.getKey();
+                PackFile file = entry.getValue();
+                int level = getCompressionLevel(path, release);
+                BuildManifest.Output previousOutput = previousBuild == null ? null : previousBuild.getOutputs().get(path);
+                PackZipEntry zipEntry = previousOutput == null ? null : previousZip.get(path);
+                // Source files another variant already wrote are only read again to install them
+                String sharedHash = installing ? null : sourceHashes.get(file);
+                PackZipWriter.CompressedEntry sharedEntry = sharedHash == null ? null : compressedEntries.get(sharedHash+'/'+level);
+                if (sharedHash != null && zipEntry != null && previousOutput.getHash().equals(sharedHash)) {
+                    return new PreparedFile(path, null, sharedHash, zipEntry, null);
+                }
+                if (sharedEntry != null) { return new PreparedFile(path, null, sharedHash, null, sharedEntry.withName(path)); }
+
+                boolean minify = release && isJson(path);
+                boolean optimize = pngOptimizer != null && path.endsWith(".png");
+                byte[] bytes;
+                String hash;
+                PackZipWriter.CompressedEntry compressed = null;
+                if (file instanceof ZipPackFile && ((ZipPackFile) file).isCopyable() && !minify && !optimize) {
+                    // Library files copied untouched keep their compressed data, only decompressed for installing
+                    ZipPackFile zipFile = (ZipPackFile) file;
+                    byte[] raw = zipFile.readRaw();
+                    zipPhase.addBytesRead(raw.length);
+                    bytes = installing ? zipFile.read() : null;
+                    hash = "raw:"+Hashes.sha1(raw);
+                    PackZipEntry rawEntry = zipFile.getEntry().withName(path);
+                    compressed = new PackZipWriter.CompressedEntry(release ? rawEntry.withDosTime(dosTime) : rawEntry, raw);
+                } else {
+                    bytes = minify ? readMinified(file) : file.read();
+                    zipPhase.addBytesRead(bytes.length);
+                    if (optimize) {
+                        optimizePhase.addEntries(1);
+                        optimizePhase.addBytesRead(bytes.length);
+                        BuildReport.Sample sample = optimizePhase.sample();
+                        bytes = pngOptimizer.optimize(path, bytes);
+                        sample.close();
+                        optimizePhase.addBytesWritten(bytes.length);
+                    }
+                    hash = Hashes.sha1(bytes);
                 }
+                // Merged files are made again by each variant, so only their hash can tell they came out the same
+                if (shared && !(file instanceof JsonPackFile)) { sourceHashes.put(file, hash); }
+                if (zipEntry != null && previousOutput.getHash().equals(hash)) {
+                    // Reprocessed, but came out the same
+                    return new PreparedFile(path, bytes, hash, zipEntry, null);
+                }
+                sharedEntry = shared ? compressedEntries.get(hash+'/'+level) : null;
+                if (sharedEntry != null) { return new PreparedFile(path, bytes, hash, null, sharedEntry.withName(path)); }
+                if (compressed == null) { compressed = PackZipWriter.compress(path, bytes, level, dosTime); }
+                if (shared) { compressedEntries.putIfAbsent(hash+'/'+level, compressed); }
+                return new PreparedFile(path, bytes, hash, null, compressed);
+            });
+            for (PreparedFile file : prepared) {
+                manifest.getOutputs().put(file.path, new BuildManifest.Output(file.hash, tree.getSources(file.path), graph.getReferences().get(file.path)));
+                if (file.previousEntry != null) {
+                    byte[] raw = previousZip.readRaw(file.previousEntry);
+                    out.writeRaw(file.previousEntry, raw);
+                    zipPhase.addBytesRead(raw.length);
+                    if (rpPath != null && installAll) { install(installPhase, rpPath, file.path, file.bytes); }
+                    continue;
+                }
+                out.writeRaw(file.compressed.getEntry(), file.compressed.getData());
+                if (rpPath != null) { install(installPhase, rpPath, file.path, file.bytes); }
+                updated++;
+            }
+            zipSha1 = out.finish();
+        }
+        Files.move(tempZip, zip, StandardCopyOption.REPLACE_EXISTING);
+        zipPhase.addEntries(manifest.getOutputs().size());
+        zipPhase.addBytesWritten(Files.size(zip));
+        zipPhase.close();
+        manifest.setZip(zip);
+        manifest.setZipSha1(zipSha1);
+        manifest.save(resolveOutput(MANIFEST));
+        Files.writeString(resolve(variant.getOutput()+".sha1"), zipSha1);
+        if (previous != null) {
+            int removed = 0;
+            for (String path : affected) {
+                if (!tree.contains(path)) { removed++; }
             }
-            for (Map.Entry<Path,JsonObject> entry : fonts.entrySet()) {
-                Path path = temp.resolve(entry.getKey());
-                File fontFile = path.toFile();
-                makeParent(fontFile);
-                try (Writer writer = new FileWriter(fontFile)) {
-                    writer.write(new GsonBuilder().setPrettyPrinting().create().toJson(entry.getValue()).replace("\\\\", "\\"));
+            log("Updated "+updated+" and removed "+removed+" of "+previous.getOutputs().size()+" files.");
+        }
+        report.getSummary().addProperty("files", manifest.getOutputs().size());
+        report.getSummary().addProperty("updated_files", updated);
+        report.getSummary().addProperty("zip_size", Files.size(zip));
+        report.getSummary().addProperty("zip_sha1", zipSha1);
+        report.save(resolveOutput(REPORT));
+
+        log("\nSuccessfully built "+variant.getOutput()+'!');
+        if (release) { log("SHA-1: "+Files.readString(resolve(variant.getOutput()+".sha1"))); }
+    }
+
+    /**
+     * @return The game's default folder on this system, which may not exist
+     */
+    private static Path getMinecraftFolder() {
+        String appData = System.getenv("APPDATA");
+        if (appData != null) { return Path.of(appData, ".minecraft"); }
+        String home = System.getProperty("user.home");
+        if (System.getProperty("os.name").startsWith("Mac")) { return Path.of(home, "Library", "Application Support", "minecraft"); }
+        return Path.of(home, ".minecraft");
+    }
+
+    private static boolean isEnabled(String key) { return config.has(key) && config.get(key).getAsBoolean(); }
+
+    /**
+     * @return Paths referenced by the file at the given path of the tree
+     */
+    private static List<String> findTargets(String path) throws IOException {
+        if (!AssetGraph.hasReferences(path)) { return List.of(); }
+        try {
+            return AssetGraph.getTargets(AssetGraph.findReferences(path, parseJson(tree.get(path))));
+        } catch (IllegalStateException | JsonParseException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * Warns about every reference to a file that is neither in the pack nor in the game.
+     */
+    private static void checkReferences(AssetGraph graph) {
+        for (Map.Entry<String,List<String>> entry : graph.getReferences().entrySet()) {
+            for (String target : new LinkedHashSet<>(entry.getValue())) {
+                if (AssetGraph.isChecked(target) && !graph.contains(target)) {
+                    warn(AssetGraph.getMissingWarning(target), target, "referenced by "+entry.getKey());
                 }
             }
-            for (Map.Entry<Path,JsonObject> entry : sounds.entrySet()) {
-                Path path = temp.resolve(entry.getKey());
-                File soundFile = path.toFile();
-                makeParent(soundFile);
-                try (Writer writer = new FileWriter(soundFile)) {
-                    writer.write(new GsonBuilder().setPrettyPrinting().create().toJson(entry.getValue()).replace("\\\\", "\\"));
+        }
+    }
+
+    /**
+     * Indexes the characters of every font of the pack.
+     */
+    private static GlyphMap indexFonts(BuildManifest previous, Set<String> affected, Path zip) throws IOException {
+        GlyphMap glyphs = new GlyphMap();
+        for (Map.Entry<String,PackFile> entry : readOutputs(GlyphMap::isFont, previous, affected, zip).entrySet()) {
+            try {
+                glyphs.add(entry.getKey(), parseJson(entry.getValue()));
+            } catch (IllegalStateException | JsonParseException ignored) {
+                // Already reported when copied
+            }
+        }
+        return glyphs;
+    }
+
+    /**
+     * @return Every file of the pack at a path accepted by the filter, by path: the ones in the tree, and the ones
+     *         unaffected by changes read from the previous zip
+     */
+    private static Map<String,PackFile> readOutputs(Predicate<String> filter, BuildManifest previous, Set<String> affected, Path zip) throws IOException {
+        Map<String,PackFile> files = new TreeMap<>();
+        for (Map.Entry<String,PackFile> entry : tree.entries()) {
+            if (filter.test(entry.getKey())) { files.put(entry.getKey(), entry.getValue()); }
+        }
+        if (previous == null) { return files; }
+        try (PackZipReader previousZip = new PackZipReader(zip)) {
+            for (String path : previous.getOutputs().keySet()) {
+                PackZipEntry entry = previousZip.get(path);
+                if (filter.test(path) && !affected.contains(path) && entry != null) { files.put(path, PackFile.of(previousZip.read(entry))); }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Sets the pack format declared by the pack.mcmeta in the tree.
+     */
+    private static void setPackFormat(int packFormat) throws IOException {
+        JsonObject mcmeta = getMasterJson("pack.mcmeta");
+        if (mcmeta == null) { return; }
+        if (!mcmeta.has("pack") || !mcmeta.get("pack").isJsonObject()) { mcmeta.add("pack", new JsonObject()); }
+        mcmeta.getAsJsonObject("pack").addProperty("pack_format", packFormat);
+    }
+
+    /**
+     * Expands the custom model data maps of the item models in the tree into overrides, and sorts their overrides.
+     * Other item models are left as they are, with a warning if their overrides are not sorted.
+     */
+    private static void compileItemModels(BuildReport.Phase phase) throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String,PackFile> entry : tree.entries()) {
+            if (CustomModelData.isItemModel(entry.getKey())) { paths.add(entry.getKey()); }
+        }
+        for (String path : paths) {
+            boolean mapped;
+            try {
+                JsonObject json = parseJson(tree.get(path));
+                mapped = json.has(CustomModelData.KEY);
+                // Overrides written by hand, or by a library, are left in the order they were written in
+                if (!mapped && !CustomModelData.isSorted(json)) { warn(WarningType.OVERRIDE_ORDER, path, "not sorted by custom_model_data"); }
+            } catch (IllegalStateException | JsonParseException e) {
+                continue;
+            }
+            if (!mapped) { continue; }
+            JsonObject model = getMasterJson(path);
+            try {
+                CustomModelData.expand(model);
+                CustomModelData.sort(model);
+                phase.addEntries(1);
+            } catch (IllegalStateException | JsonParseException e) {
+                warn(WarningType.INVALID, path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Packs the bitmap providers of every font into as few textures as possible, leaving out the packed textures
+     * nothing references anymore.
+     */
+    private static void packFonts(AssetGraph graph, BuildReport.Phase phase) throws IOException {
+        FontPacker packer = new FontPacker(path -> AssetGraph.isPrunable(path) && tree.contains(path) && !tree.contains(path+".mcmeta") ? tree.get(path).read() : null);
+        List<String> fonts = new ArrayList<>();
+        for (Map.Entry<String,PackFile> entry : tree.entries()) {
+            if (GlyphMap.isFont(entry.getKey())) { fonts.add(entry.getKey()); }
+        }
+        Collections.sort(fonts);
+        for (String path : fonts) {
+            JsonObject font = getMasterJson(path);
+            if (font != null && packer.pack(path, font)) { graph.put(path, AssetGraph.getTargets(AssetGraph.findReferences(path, font))); }
+        }
+        if (packer.getAtlases().isEmpty()) { return; }
+
+        for (Map.Entry<String,byte[]> atlas : packer.getAtlases().entrySet()) {
+            tree.put(atlas.getKey(), PackFile.of(atlas.getValue()));
+            graph.put(atlas.getKey(), List.of());
+            phase.addBytesWritten(atlas.getValue().length);
+        }
+        Map<String,List<String>> referrers = graph.getReferrers();
+        for (String texture : packer.getPackedTextures()) {
+            if (referrers.containsKey(texture) || graph.isListed(texture)) { continue; }
+            tree.remove(texture);
+            graph.remove(texture);
+        }
+        phase.addEntries(packer.getPackedTextures().size());
+        log("Packed the glyphs of "+packer.getPackedTextures().size()+" font textures into "+packer.getAtlases().size()+'.');
+    }
+
+    /**
+     * Collapses prunable files with the same contents (and animation, for textures) into the first of them by path,
+     * pointing every reference to the others at it instead.
+     */
+    private static void deduplicate(AssetGraph graph) throws IOException {
+        List<String> paths = new ArrayList<>();
+        for (String path : graph.getReferences().keySet()) {
+            if (AssetGraph.isPrunable(path) && !path.endsWith(".mcmeta") && !graph.isListed(path)) { paths.add(path); }
+        }
+        Collections.sort(paths);
+        List<String> hashes = workers.map(paths, path -> {
+            PackFile animation = tree.get(path+".mcmeta");
+            return Hashes.sha1(tree.get(path).read())+(animation == null ? "" : Hashes.sha1(animation.read()));
+        });
+        Map<String,List<String>> referrers = graph.getReferrers();
+        Map<String,String> firsts = new HashMap<>();
+        Map<String,String> replacements = new HashMap<>();
+        Iterator<String> hashIterator = hashes.iterator();
+        for (String path : paths) {
+            String first = firsts.putIfAbsent(hashIterator.next(), path);
+            if (first == null || !referrers.containsKey(path)) { continue; }
+            boolean retargetable = true;
+            for (String referrer : referrers.get(path)) {
+                for (AssetGraph.Reference reference : AssetGraph.findReferences(referrer, parseJson(tree.get(referrer)))) {
+                    if (reference.getTarget().equals(path) && !reference.canRetarget(first)) { retargetable = false; }
                 }
             }
+            if (retargetable) { replacements.put(path, first); }
+        }
+        if (replacements.isEmpty()) { return; }
 
-            List<Path> tempFiles = Files.walk(temp).collect(Collectors.toList());
+        Set<String> rewritten = new LinkedHashSet<>();
+        for (String path : replacements.keySet()) { rewritten.addAll(referrers.get(path)); }
+        for (String referrer : rewritten) {
+            JsonObject json = getMasterJson(referrer);
+            List<AssetGraph.Reference> references = AssetGraph.findReferences(referrer, json);
+            for (AssetGraph.Reference reference : references) {
+                String replacement = replacements.get(reference.getTarget());
+                if (replacement != null) { reference.retarget(replacement); }
+            }
+            graph.put(referrer, AssetGraph.getTargets(AssetGraph.findReferences(referrer, json)));
+        }
+        for (String path : replacements.keySet()) {
+            tree.remove(path);
+            tree.remove(path+".mcmeta");
+            graph.remove(path);
+            graph.remove(path+".mcmeta");
+        }
+        log("Collapsed "+replacements.size()+" duplicate files.");
+    }
+
+    private static void printPngSavings(Map<String,long[]> savings) {
+        long before = 0;
+        long after = 0;
+        for (long[] sizes : savings.values()) {
+            before += sizes[0];
+            after += sizes[1];
+        }
+        if (before == after) { return; }
+        log("Optimized PNG files, saving "+formatSavings(before, after)+':');
+        for (Map.Entry<String,long[]> entry : savings.entrySet()) {
+            long[] sizes = entry.getValue();
+            if (sizes[0] != sizes[1]) { log("  "+(entry.getKey().isEmpty() ? "." : entry.getKey())+": "+formatSavings(sizes[0], sizes[1])); }
+        }
+    }
+
+    private static String formatSavings(long before, long after) {
+        return (before-after)+" of "+before+" bytes ("+Math.round(100.0*(before-after)/before)+"%)";
+    }
+
+    private static boolean isJson(String path) { return path.endsWith(".json") || path.endsWith(".mcmeta"); }
+
+    /**
+     * @return The file's contents without whitespace, or as they are if they are not a valid JSON object
+     */
+    private static byte[] readMinified(PackFile file) throws IOException {
+        if (file instanceof JsonPackFile) { return ((JsonPackFile) file).readMinified(); }
+        byte[] bytes = file.read();
+        try {
+            return PackJson.write(PackJson.parse(bytes), false);
+        } catch (IllegalStateException | JsonParseException e) {
+            return bytes;
+        }
+    }
 
-            // Copy to .minecraft
-            File minecraftFolder = new File(System.getenv("APPDATA")+"/.minecraft");
-            if (minecraftFolder.exists()) {
-                System.out.println("Found .minecraft folder. Copying files to resource pack folder...");
-                Path rpPath = minecraftFolder.toPath().resolve("resourcepacks/CrystalPledge");
-                deleteFile(rpPath.toFile());
-                for (Path path : tempFiles) { Files.copy(path, rpPath.resolve(temp.relativize(path))); }
+    /**
+     * @return Deflate level for a file: files that are already compressed are barely worth the time, even for release
+     *         builds, and are stored as they are if deflating doesn't make them smaller
+     */
+    private static int getCompressionLevel(String path, boolean release) {
+        if (path.endsWith(".png") || path.endsWith(".ogg")) { return Deflater.BEST_SPEED; }
+        return release ? Deflater.BEST_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * @return Every layer of the pack by key, in copy order
+     */
+    private static Map<String,Layer> loadLayers(List<PackZipReader> libraries) throws IOException {
+        Map<String,Layer> layers = new LinkedHashMap<>();
+
+        Layer main = new Layer("main resource pack files");
+        for (String fileName : mainFiles) { main.add(new PackSource(fileName, null, fileName, PackFile.of(resolve(fileName)))); }
+        layers.put("main", main);
+
+        Layer vanillaTweaks = new Layer("Vanilla Tweaks");
+        String vanillaTweaksPath = config.get("vanilla_tweaks").getAsString();
+        PackZipReader vanillaTweaksZip = openLibrary(libraries, vanillaTweaksPath);
+        if (vanillaTweaksZip != null) {
+            for (PackZipEntry entry : vanillaTweaksZip.entries()) {
+                String entryName = entry.getName();
+                if (entry.isDirectory() || mainFiles.contains(entryName)) { continue; }
+                vanillaTweaks.add(new PackSource(vanillaTweaksPath, entryName, entryName, PackFile.of(vanillaTweaksZip, entry)));
             }
+        }
+        layers.put("vanilla_tweaks", vanillaTweaks);
 
-            System.out.println("Zipping files...");
-            try (OutputStream fileOut = new FileOutputStream(zip);
-                 ZipOutputStream out = new ZipOutputStream(fileOut)) {
-                for (Path path : tempFiles) {
-                    File file = path.toFile();
-                    if (file.isDirectory()) { continue; }
-                    out.putNextEntry(new ZipEntry(temp.relativize(path).toString().replace('\\', '/')));
-                    try (InputStream in = new FileInputStream(file)) { out.write(in.readAllBytes()); }
-                    out.closeEntry();
+        Layer negativeSpace = new Layer("Negative Space Font");
+        String negativeSpacePath = config.get("negative_space").getAsString();
+        PackZipReader negativeSpaceZip = openLibrary(libraries, negativeSpacePath);
+        if (negativeSpaceZip != null) {
+            for (PackZipEntry entry : negativeSpaceZip.entries()) {
+                if (entry.isDirectory()) { continue; }
+                String entryName = entry.getName();
+                if (entryName.startsWith("assets/space/textures") || entryName.equals("assets/minecraft/font/default.json")) {
+                    negativeSpace.add(new PackSource(negativeSpacePath, entryName, entryName, PackFile.of(negativeSpaceZip, entry)));
+                } else if (entryName.equals("LICENSE.txt")) {
+                    negativeSpace.add(new PackSource(negativeSpacePath, entryName, "NegativeSpaceFont_LICENSE.txt", PackFile.of(negativeSpaceZip, entry)));
                 }
             }
-        } finally {
-            try { deleteFile(temp.toFile()); } catch (IOException e) {
-                warn(WarningType.DELETE, temp.toString(), e.getMessage());
+        }
+        layers.put("negative_space", negativeSpace);
+
+        Layer bonus = new Layer("BONUS Mushroom Blocks");
+        String bonusPath = config.get("bonus_mushroom_blocks").getAsString();
+        PackZipReader bonusZip = openLibrary(libraries, bonusPath);
+        if (bonusZip != null) {
+            for (PackZipEntry entry : bonusZip.entries()) {
+                String entryName = entry.getName();
+                if (entry.isDirectory() || mainFiles.contains(entryName) || entryName.equals("changelog.txt")) {
+                    continue;
+                }
+                bonus.add(new PackSource(bonusPath, entryName, entryName, PackFile.of(bonusZip, entry)));
             }
         }
+        layers.put("bonus_mushroom_blocks", bonus);
+
+        Layer assets = new Layer("assets");
+        addFolder(assets, directory, resolve("assets"));
+        layers.put("assets", assets);
 
-        System.out.println("\nSuccessfully built "+CRYSTAL_PLEDGE_ZIP+'!');
+        return layers;
+    }
+
+    /**
+     * Adds every file inside a folder to a layer.
+     * @param root Folder the paths of the files in the pack are relative to
+     */
+    private static void addFolder(Layer layer, Path root, Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                String input = directory.relativize(path).toString().replace('\\', '/');
+                if (Files.isDirectory(path) || input.endsWith(".bbmodel")) { continue; }
+                layer.add(new PackSource(input, null, root.relativize(path).toString().replace('\\', '/'), PackFile.of(path)));
+            }
+        }
+    }
+
+    /**
+     * @param layers Every layer of the pack by key
+     * @return The layers of the variant being built, followed by its overlay, without the files it leaves out
+     */
+    private static List<Layer> getVariantLayers(Map<String,Layer> layers) throws IOException {
+        List<Layer> selected = new ArrayList<>();
+        for (String key : variant.getLayers()) { selected.add(layers.get(key)); }
+        if (variant.getOverlay() != null) {
+            Layer overlay = new Layer(variant.getOverlay());
+            Path folder = resolve(variant.getOverlay());
+            if (Files.isDirectory(folder)) {
+                addFolder(overlay, folder, folder);
+            } else {
+                warn(WarningType.MISSING, variant.getOverlay(), null);
+            }
+            selected.add(overlay);
+        }
+        List<Layer> variantLayers = new ArrayList<>();
+        for (Layer layer : selected) {
+            Layer variantLayer = new Layer(layer.getName());
+            for (PackSource source : layer.getSources()) {
+                if (!variant.isExcluded(source.getPath())) { variantLayer.add(source); }
+            }
+            variantLayers.add(variantLayer);
+        }
+        return variantLayers;
+    }
+
+    /**
+     * Copies the sources of every layer into a new tree.
+     * @param filter Which sources to copy, or null to copy all of them
+     */
+    private static void copyLayers(List<Layer> layers, Predicate<PackSource> filter) throws IOException {
+        tree = new PackTree();
+        for (Layer layer : layers) {
+            List<PackSource> sources = new ArrayList<>();
+            for (PackSource source : layer.getSources()) {
+                if (filter == null || filter.test(source)) { sources.add(source); }
+            }
+            if (sources.isEmpty()) { continue; }
+            log("Copying "+layer.getName()+"...");
+            try (BuildReport.Phase phase = report.phase("copy/"+layer.getName())) {
+                phase.addEntries(sources.size());
+                // Read and parse files to merge in parallel, then copy them in order
+                for (PackSource source : workers.map(sources, source -> {
+                    if (JsonMerge.forPath(source.getPath()) == null) { return source; }
+                    // Every variant merges the same parsed files, so they are only parsed once per run, and daemons keep
+                    // them for the next run until their input changes
+                    String key = source.getId()+'@'+inputStates.get(source.getInput()).getHash();
+                    ParsedPackFile parsed = parsedSources.get(key);
+                    if (parsed == null) {
+                        parsed = previousParsedSources.get(key);
+                        if (parsed == null) {
+                            parsed = ParsedPackFile.parse(source.getFile());
+                            phase.addBytesRead(parsed.read().length);
+                        }
+                        parsedSources.put(key, parsed);
+                    }
+                    return source.withFile(parsed);
+                })) {
+                    copy(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * A file of the tree ready to be written to the zip: either compressed, or unchanged from the previous build.
+     */
+    private static class PreparedFile {
+        private final String path;
+        private final byte[] bytes;
+        private final String hash;
+        private final PackZipEntry previousEntry;
+        private final PackZipWriter.CompressedEntry compressed;
+
+        private PreparedFile(String path, byte[] bytes, String hash, PackZipEntry previousEntry, PackZipWriter.CompressedEntry compressed) {
+            this.path = path;
+            this.bytes = bytes;
+            this.hash = hash;
+            this.previousEntry = previousEntry;
+            this.compressed = compressed;
+        }
+    }
+
+    private static void install(BuildReport.Phase phase, Path rpPath, String path, byte[] bytes) throws IOException {
+        BuildReport.Sample sample = phase.sample();
+        Path file = rpPath.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+        sample.close();
+        phase.addEntries(1);
+        phase.addBytesWritten(bytes.length);
     }
 
     private static void deleteFile(File file) throws IOException {
@@ -211,170 +1051,80 @@ public class ResourcePackBuilder {
             File[] contents = file.listFiles();
             if (contents != null) { for (File subFile : contents) { deleteFile(subFile); } }
         }
-        if (!file.delete()) { throw new IOException("Failed to delete temp files"); }
+        if (!file.delete()) { throw new IOException("Failed to delete "+file); }
+    }
+
+    private static PackZipReader openLibrary(List<PackZipReader> libraries, String libraryPath) throws IOException {
+        try {
+            PackZipReader library = new PackZipReader(resolve(libraryPath));
+            libraries.add(library);
+            return library;
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            warn(WarningType.MISSING, libraryPath, null);
+            return null;
+        }
     }
 
-    private static void makeParent(File file) {
-        File parentFile = file.getParentFile();
-        if (!parentFile.exists()) { parentFile.mkdirs(); }
+    private static JsonObject parseJson(PackFile file) throws IOException {
+        if (file instanceof ParsedPackFile) { return ((ParsedPackFile) file).getJson(); }
+        if (file instanceof JsonPackFile) { return ((JsonPackFile) file).getJson(); }
+        return PackJson.parse(file.read());
     }
 
-    private static List<String> splitCharLine(String charLine) {
-        List<String> result = new LinkedList<>();
-        int i = 0;
-        while (i < charLine.length()) {
-            if (charLine.charAt(i) == '\\') {
-                result.add(charLine.substring(i, i+6));
-                i += 6;
-            } else {
-                result.add(charLine.substring(i, i+1));
-                i += 1;
+    /**
+     * @return The file's parsed contents, to modify: parsed files are shared by every variant, so they are copied
+     */
+    private static JsonObject parseJsonCopy(PackFile file) throws IOException {
+        JsonObject json = parseJson(file);
+        return file instanceof ParsedPackFile ? json.deepCopy() : json;
+    }
+
+    /**
+     * Gets the merged JSON object at the given path, turning the file already copied there (if any) into one.
+     * @return The merged object, or null if the existing file is not valid JSON
+     */
+    private static JsonObject getMasterJson(String path) throws IOException {
+        PackFile existing = tree.get(path);
+        if (existing instanceof JsonPackFile) { return ((JsonPackFile) existing).getJson(); }
+        JsonObject master;
+        if (existing != null) {
+            try {
+                master = parseJsonCopy(existing);
+            } catch (IllegalStateException | JsonParseException e) {
+                warn(WarningType.INVALID, path, null);
+                return null;
             }
+        } else {
+            master = new JsonObject();
         }
-        return result;
+        tree.put(path, new JsonPackFile(master));
+        return master;
     }
 
-    private static void copy(Path destination, Path path, InputStream in) throws IOException {
-        String[] strings = path.toString().split("\\\\");
-        File file = destination.resolve(path).toFile();
+    private static void copy(PackSource source) throws IOException {
+        String path = source.getPath();
+        PackFile file = source.getFile();
 
-        // Lang files
-        if (path.startsWith("assets\\minecraft\\lang")) {
+        JsonMerge merge = JsonMerge.forPath(path);
+        if (merge != null && (merge.isAlwaysMerged() || tree.contains(path))) {
             try {
-                JsonObject sourceLang = JsonParser.parseString(new String(in.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject();
-                JsonArray langs = sourceLang.getAsJsonArray("langs");
-                if (langs == null) {
-                    JsonObject masterLang = ResourcePackBuilder.langs.get(path);
-                    if (masterLang == null) {
-                        if (file.exists()) {
-                            try (InputStream inputStream = new FileInputStream(file)) {
-                                masterLang = JsonParser.parseString(new String(inputStream.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject();
-                            } catch (IllegalStateException | MalformedJsonException e) {
-                                warn(WarningType.INVALID, file.toString(), null);
-                                return;
-                            }
-                            file.delete();
-                        } else {
-                            masterLang = new JsonObject();
-                        }
-                        ResourcePackBuilder.langs.put(path, masterLang);
-                    }
-                    for (Map.Entry<String,JsonElement> entry : sourceLang.entrySet()) {
-                        String key = entry.getKey();
-                        if (masterLang.has(key)) { warn(WarningType.LANG, path.toString()+':'+key, null); }
-                        masterLang.add(key, entry.getValue());
-                    }
-                } else {
-                    for (JsonElement childLangKey : langs) {
-                        Path childPath = Path.of("assets/minecraft/lang/"+childLangKey.getAsString()+".json");
-                        File childFile = destination.resolve(childPath).toFile();
-                        JsonObject masterLang = ResourcePackBuilder.langs.get(childPath);
-                        if (masterLang == null) {
-                            if (childFile.exists()) {
-                                try (Reader existingReader = new InputStreamReader(new FileInputStream(childFile))) {
-                                    masterLang = JsonParser.parseReader(existingReader).getAsJsonObject();
-                                } catch (IllegalStateException | MalformedJsonException e) {
-                                    warn(WarningType.INVALID, childFile.toString(), null);
-                                    return;
-                                }
-                                childFile.delete();
-                            } else {
-                                masterLang = new JsonObject();
-                            }
-                            ResourcePackBuilder.langs.put(childPath, masterLang);
-                        }
-                        for (Map.Entry<String,JsonElement> entry : sourceLang.entrySet()) {
-                            String key = entry.getKey();
-                            if (key.equals("langs")) { continue; }
-                            if (masterLang.has(key)) { warn(WarningType.LANG, childPath.toString()+':'+key, null); }
-                            masterLang.add(key, entry.getValue());
-                        }
-                    }
+                JsonObject sourceJson = parseJsonCopy(file);
+                for (String target : merge.getTargets(path, sourceJson)) {
+                    tree.addSource(target, source.getId());
+                    JsonObject master = getMasterJson(target);
+                    if (master == null) { return; }
+                    merge.merge(target, master, sourceJson);
                 }
-            } catch (IllegalStateException | MalformedJsonException e) {
-                warn(WarningType.INVALID, path.toString(), null);
+            } catch (IllegalStateException | JsonParseException e) {
+                warn(WarningType.INVALID, path, null);
             }
             return;
         }
 
-        if (file.exists()) {
-            // Attempt merging
-            if (strings[0].equals("assets") && strings[2].equals("font")) {
-                // Merge fonts
-                try {
-                    JsonArray masterProviders;
-                    {
-                        JsonObject masterFont = fonts.get(path);
-                        if (masterFont == null) {
-                            if (file.exists()) {
-                                try (InputStream inputStream = new FileInputStream(file)) {
-                                    masterFont = JsonParser.parseString(new String(inputStream.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject();
-                                } catch (IllegalStateException | MalformedJsonException e) {
-                                    warn(WarningType.INVALID, file.toString(), null);
-                                    return;
-                                }
-                                file.delete();
-                            } else {
-                                masterFont = new JsonObject();
-                            }
-                            fonts.put(path, masterFont);
-                        }
-                        masterProviders = masterFont.getAsJsonArray("providers");
-                        if (masterProviders == null) { masterFont.add("providers", masterProviders = new JsonArray()); }
-                    }
-                    Set<String> existingChars = chars.computeIfAbsent(path, key -> new HashSet<>());
-                    for (JsonElement provider : JsonParser.parseString(new String(in.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject().getAsJsonArray("providers")) {
-                        for (JsonElement charLine : provider.getAsJsonObject().getAsJsonArray("chars")) {
-                            for (String character : splitCharLine(charLine.getAsString())) {
-                                if (!character.equals("\\u0000") && !existingChars.add(character)) {
-                                    warn(WarningType.CHAR, file.toString()+':'+character, null);
-                                }
-                            }
-                        }
-                        masterProviders.add(provider);
-                    }
-                } catch (IllegalStateException | MalformedJsonException e) {
-                    warn(WarningType.INVALID, path.toString(), null);
-                }
-                return;
-            } else if (strings[0].equals("assets") && strings[2].equals("sounds.json")) {
-                // Merge sounds.json
-                try {
-                    JsonObject masterSounds = sounds.get(path);
-                    if (masterSounds == null) {
-                        if (file.exists()) {
-                            try (InputStream inputStream = new FileInputStream(file)) {
-                                masterSounds = JsonParser.parseString(new String(inputStream.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject();
-                            } catch (IllegalStateException | MalformedJsonException e) {
-                                warn(WarningType.INVALID, file.toString(), null);
-                                return;
-                            }
-                            file.delete();
-                        } else {
-                            masterSounds = new JsonObject();
-                        }
-                        sounds.put(path, masterSounds);
-                    }
-                    JsonObject newSounds = JsonParser.parseString(new String(in.readAllBytes()).replace("\\", "\\\\")).getAsJsonObject();
-                    for (Map.Entry<String,JsonElement> soundEntry : newSounds.entrySet()) {
-                        String soundId = soundEntry.getKey();
-                        if (masterSounds.has(soundId)) {
-                            warn(WarningType.SOUND, path.toString(), null);
-                        }
-                        masterSounds.add(soundId, soundEntry.getValue());
-                    }
-                } catch (IllegalStateException | MalformedJsonException e) {
-                    warn(WarningType.INVALID, path.toString(), null);
-                }
-                return;
-            } else {
-                if (!path.startsWith("assets\\minecraft\\textures\\block\\lapisdemon\\bonus\\mushroomblocks\\")) {
-                    warn(WarningType.FILE, path.toString(), null);
-                }
-                file.delete();
-            }
+        tree.addSource(path, source.getId());
+        if (tree.contains(path) && !path.startsWith("assets/minecraft/textures/block/lapisdemon/bonus/mushroomblocks/")) {
+            warn(WarningType.FILE, path, null);
         }
-        makeParent(file);
-        try (OutputStream out = new FileOutputStream(file)) { out.write(in.readAllBytes()); }
+        tree.put(path, file);
     }
 }
@@ -0,0 +1,22 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Merges the sound events of sounds.json files.
+ */
+public class SoundsMerge extends JsonMerge {
+    public SoundsMerge() { super("assets/*/sounds.json"); }
+
+    @Override
+    public void merge(String path, JsonObject master, JsonObject source) {
+        for (Map.Entry<String,JsonElement> soundEntry : source.entrySet()) {
+            String soundId = soundEntry.getKey();
+            if (master.has(soundId)) { ResourcePackBuilder.warn(WarningType.SOUND, path, soundId); }
+            master.add(soundId, soundEntry.getValue());
+        }
+    }
+}
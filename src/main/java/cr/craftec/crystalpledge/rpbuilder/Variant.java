@@ -0,0 +1,90 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * One of the zips built from the pack: which of the input layers it's made of, the files left out of them, a folder
+ * of files copied on top of them, and the pack format it declares.
+ */
+public class Variant {
+    private final String output;
+    private final List<String> layers;
+    private final String overlay;
+    private final List<Pattern> excluded;
+    private final int packFormat;
+
+    /**
+     * @param output File name of the zip
+     * @param layers Keys of the layers to copy, in copy order
+     * @param overlay Folder whose files are copied after every layer, or null
+     * @param excluded Paths of the files left out
+     * @param packFormat Pack format to set in pack.mcmeta, or -1 to keep the one it has
+     */
+    public Variant(String output, List<String> layers, String overlay, List<Pattern> excluded, int packFormat) {
+        this.output = output;
+        this.layers = layers;
+        this.overlay = overlay;
+        this.excluded = excluded;
+        this.packFormat = packFormat;
+    }
+
+    /**
+     * Reads a variant from the config, like <code>{"output": "CrystalPledge-Lite.zip", "layers": ["main", "assets"],
+     * "overlay": "variants/lite", "exclude": ["assets/minecraft/sounds/**"], "pack_format": 12}</code>.
+     * Every key but the output is optional.
+     * @param layerKeys Key of every layer, in copy order
+     * @throws JsonSyntaxException If the variant is not valid
+     */
+    public static Variant parse(JsonElement element, Collection<String> layerKeys) {
+        if (!element.isJsonObject()) { throw new JsonSyntaxException("variant is not an object"); }
+        JsonObject json = element.getAsJsonObject();
+        if (!json.has("output") || !json.get("output").getAsString().endsWith(".zip")) { throw new JsonSyntaxException("variant output is not a zip"); }
+        String output = json.get("output").getAsString();
+        List<String> layers = new ArrayList<>(layerKeys);
+        if (json.has("layers")) {
+            List<String> selected = new ArrayList<>();
+            for (JsonElement layer : json.getAsJsonArray("layers")) {
+                if (!layerKeys.contains(layer.getAsString())) { throw new JsonSyntaxException(output+" layer \""+layer.getAsString()+"\" doesn't exist"); }
+                selected.add(layer.getAsString());
+            }
+            // Layers are always copied in the same order, whatever order they are listed in
+            layers.retainAll(selected);
+        }
+        List<Pattern> excluded = new ArrayList<>();
+        if (json.has("exclude")) {
+            for (JsonElement glob : json.getAsJsonArray("exclude")) { excluded.add(Glob.compile(glob.getAsString())); }
+        }
+        return new Variant(output, layers, json.has("overlay") ? json.get("overlay").getAsString() : null, excluded,
+                           json.has("pack_format") ? json.get("pack_format").getAsInt() : -1);
+    }
+
+    /** @return File name of the zip */
+    public String getOutput() { return output; }
+
+    /** @return File name of the zip without its extension, which names every other file of the variant */
+    public String getName() { return output.substring(0, output.length()-".zip".length()); }
+
+    /** @return Keys of the layers to copy, in copy order */
+    public List<String> getLayers() { return layers; }
+
+    /** @return Folder whose files are copied after every layer, with the same layout as the pack, or null */
+    public String getOverlay() { return overlay; }
+
+    /** @return Whether the file at the given path of the pack is left out */
+    public boolean isExcluded(String path) {
+        for (Pattern pattern : excluded) {
+            if (pattern.matcher(path).matches()) { return true; }
+        }
+        return false;
+    }
+
+    /** @return Pack format to set in pack.mcmeta, or -1 to keep the one it has */
+    public int getPackFormat() { return packFormat; }
+}
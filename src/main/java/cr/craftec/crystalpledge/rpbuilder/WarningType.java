@@ -8,6 +8,12 @@ public enum WarningType {
     CHAR("Duplicate char "),
     SOUND("Duplicate sound "),
     FILE("Duplicate file "),
+    OVERRIDE("Duplicate model override "),
+    OVERRIDE_ORDER("Unsorted model overrides "),
+    MODEL("Missing model "),
+    TEXTURE("Missing texture "),
+    SOUND_FILE("Missing sound file "),
+    FONT("Missing font "),
     ;
 
     private final String message;
@@ -0,0 +1,67 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Pool of worker threads running independent tasks, whose results are always returned in submission order so that
+ * anything applied from them afterwards happens exactly as in a single-threaded build.
+ */
+public class Workers {
+    private final int count;
+    private final ExecutorService executor;
+
+    /**
+     * @param count Number of threads, or 0 to use one per available processor. With 1, tasks run on the calling thread.
+     */
+    public Workers(int count) {
+        this.count = count > 0 ? count : Runtime.getRuntime().availableProcessors();
+        executor = this.count == 1 ? null : Executors.newFixedThreadPool(this.count, runnable -> {
+            Thread thread = new Thread(runnable, "rpbuilder-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getCount() { return count; }
+
+    /**
+     * Runs a task for every item.
+     * @return The results, in the same order as the items
+     */
+    public <T,R> List<R> map(Collection<T> items, Task<T,R> task) throws IOException {
+        List<R> results = new ArrayList<>(items.size());
+        if (executor == null) {
+            for (T item : items) { results.add(task.run(item)); }
+            return results;
+        }
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) { futures.add(executor.submit(() -> task.run(item))); }
+        try {
+            for (Future<R> future : futures) { results.add(future.get()); }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) { throw (IOException) cause; }
+            if (cause instanceof UncheckedIOException) { throw ((UncheckedIOException) cause).getCause(); }
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IOException(cause);
+        } finally {
+            for (Future<R> future : futures) { future.cancel(true); }
+        }
+        return results;
+    }
+
+    public void shutdown() { if (executor != null) { executor.shutdownNow(); } }
+
+    public interface Task<T,R> {
+        R run(T item) throws IOException;
+    }
+}
@@ -0,0 +1,29 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import java.io.IOException;
+
+/**
+ * A pack file stored in a library zip, whose compressed data can be copied as is into the built pack.
+ */
+public class ZipPackFile implements PackFile {
+    private final PackZipReader zip;
+    private final PackZipEntry entry;
+
+    public ZipPackFile(PackZipReader zip, PackZipEntry entry) {
+        this.zip = zip;
+        this.entry = entry;
+    }
+
+    public PackZipEntry getEntry() { return entry; }
+
+    /** @return Whether the entry's compressed data can be copied into another zip */
+    public boolean isCopyable() {
+        return entry.getMethod() == PackZipEntry.STORED || entry.getMethod() == PackZipEntry.DEFLATED;
+    }
+
+    /** @return The entry's compressed data */
+    public byte[] readRaw() throws IOException { return zip.readRaw(entry); }
+
+    @Override
+    public byte[] read() throws IOException { return zip.read(entry); }
+}
@@ -0,0 +1,70 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomModelDataTest {
+    @Test
+    void expandsMapsIntoSortedOverrides() {
+        JsonObject model = object("{'parent': 'item/generated', 'overrides': [{'predicate': {'custom_model_data': 3}, 'model': 'a:item/three'}],"
+                                  +"'custom_model_data': {'2': 'a:item/two',"
+                                  +"'1': [{'model': 'a:item/one'}, {'predicate': {'pulling': 1}, 'model': 'a:item/one_pulling'}]}}");
+        CustomModelData.expand(model);
+        assertFalse(model.has(CustomModelData.KEY));
+        assertFalse(CustomModelData.isSorted(model));
+        assertTrue(CustomModelData.sort(model));
+        assertTrue(CustomModelData.isSorted(model));
+        assertEquals(parse("[{'predicate': {'custom_model_data': 1}, 'model': 'a:item/one'},"
+                           +"{'predicate': {'custom_model_data': 1, 'pulling': 1}, 'model': 'a:item/one_pulling'},"
+                           +"{'predicate': {'custom_model_data': 2}, 'model': 'a:item/two'},"
+                           +"{'predicate': {'custom_model_data': 3}, 'model': 'a:item/three'}]"), model.get("overrides"));
+        assertFalse(CustomModelData.sort(model));
+    }
+
+    @Test
+    void keepsOverridesWithoutCustomModelDataFirst() {
+        JsonObject model = object("{'overrides': [{'predicate': {'custom_model_data': 1}, 'model': 'a:item/one'},"
+                                  +"{'predicate': {'pulling': 1}, 'model': 'minecraft:item/bow_pulling_0'},"
+                                  +"{'predicate': {'pulling': 1, 'pull': 0.65}, 'model': 'minecraft:item/bow_pulling_1'}]}");
+        assertTrue(CustomModelData.sort(model));
+        assertEquals("minecraft:item/bow_pulling_0", model.getAsJsonArray("overrides").get(0).getAsJsonObject().get("model").getAsString());
+        assertEquals("minecraft:item/bow_pulling_1", model.getAsJsonArray("overrides").get(1).getAsJsonObject().get("model").getAsString());
+        assertEquals("a:item/one", model.getAsJsonArray("overrides").get(2).getAsJsonObject().get("model").getAsString());
+    }
+
+    @Test
+    void rejectsInvalidMaps() {
+        assertThrows(JsonParseException.class, () -> CustomModelData.expand(object("{'custom_model_data': {'one': 'a:item/one'}}")));
+        assertThrows(JsonParseException.class, () -> CustomModelData.expand(object("{'custom_model_data': ['a:item/one']}")));
+    }
+
+    @Test
+    void mergesMapsAcrossLayers() {
+        JsonObject master = object("{'parent': 'item/generated', 'custom_model_data': {'5': 'a:item/five'}}");
+        new ItemModelMerge().merge("assets/minecraft/models/item/stick.json", master,
+                                   object("{'parent': 'item/handheld', 'custom_model_data': {'2': 'b:item/two'}}"));
+        assertEquals(parse("{'parent': 'item/handheld', 'overrides': [{'predicate': {'custom_model_data': 2}, 'model': 'b:item/two'},"
+                           +"{'predicate': {'custom_model_data': 5}, 'model': 'a:item/five'}]}"), master);
+    }
+
+    @Test
+    void indexesModelsByItem() {
+        JsonObject model = object("{'overrides': [{'predicate': {'custom_model_data': 1, 'pulling': 1}, 'model': 'a:item/one_pulling'},"
+                                  +"{'predicate': {'custom_model_data': 1}, 'model': 'a:item/one'},"
+                                  +"{'predicate': {'custom_model_data': 2.5}, 'model': 'a:item/two'},"
+                                  +"{'predicate': {'pulling': 1}, 'model': 'minecraft:item/bow_pulling_0'}]}");
+        CustomModelData index = new CustomModelData();
+        index.add("assets/minecraft/models/item/bow.json", model);
+        assertEquals(2, index.size());
+        assertEquals(parse("{'minecraft:bow': {'1': 'a:item/one', '2.5': 'a:item/two'}}"), index.toJson());
+    }
+
+    private static JsonElement parse(String json) { return JsonParser.parseString(json.replace('\'', '"')); }
+
+    private static JsonObject object(String json) { return parse(json).getAsJsonObject(); }
+}
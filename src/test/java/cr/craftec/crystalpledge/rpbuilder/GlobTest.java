@@ -0,0 +1,38 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobTest {
+    @Test
+    void starMatchesWithinAFolder() {
+        Pattern pattern = Glob.compile("assets/*/models/item/*.json");
+        assertTrue(pattern.matcher("assets/minecraft/models/item/bow.json").matches());
+        assertTrue(pattern.matcher("assets/crystalpledge/models/item/.json").matches());
+        assertFalse(pattern.matcher("assets/minecraft/models/item/bow/pulling.json").matches());
+        assertFalse(pattern.matcher("assets/minecraft/models/block/stone.json").matches());
+    }
+
+    @Test
+    void doubleStarMatchesAcrossFolders() {
+        Pattern pattern = Glob.compile("assets/minecraft/lang/**");
+        assertTrue(pattern.matcher("assets/minecraft/lang/en_us.json").matches());
+        assertTrue(pattern.matcher("assets/minecraft/lang/extra/fr_fr.json").matches());
+        assertFalse(pattern.matcher("assets/crystalpledge/lang/en_us.json").matches());
+
+        pattern = Glob.compile("assets/**/*.png");
+        assertTrue(pattern.matcher("assets/minecraft/textures/item/bow.png").matches());
+        assertFalse(pattern.matcher("assets/minecraft/textures/item/bow.png.mcmeta").matches());
+    }
+
+    @Test
+    void quotesEverythingElse() {
+        Pattern pattern = Glob.compile("pack.mcmeta");
+        assertTrue(pattern.matcher("pack.mcmeta").matches());
+        assertFalse(pattern.matcher("packXmcmeta").matches());
+        assertTrue(Glob.compile("a(b)+[c].json").matcher("a(b)+[c].json").matches());
+    }
+}
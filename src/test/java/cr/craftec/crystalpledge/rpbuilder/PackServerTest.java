@@ -0,0 +1,135 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackServerTest {
+    private static final String SHA1 = "0123456789abcdef0123456789abcdef01234567";
+    private static final String ETAG = '"'+SHA1+'"';
+    private static final Instant MODIFIED = Instant.parse("2024-05-01T12:00:00Z");
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final byte[] bytes = new byte[1000];
+    private PackServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        for (int i = 0; i < bytes.length; i++) { bytes[i] = (byte) i; }
+        server = new PackServer(new InetSocketAddress("127.0.0.1", 0), clean -> clean ? "clean" : "incremental");
+        server.setZips(Map.of("pack.zip", new PackServer.Zip(bytes, SHA1, MODIFIED)));
+    }
+
+    @AfterEach
+    void stop() { server.close(); }
+
+    @Test
+    void parsesSuffixRanges() {
+        assertArrayEquals(new long[]{900, 1000}, PackServer.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[]{0, 1000}, PackServer.parseRange("bytes=-5000", 1000));
+        assertArrayEquals(new long[0], PackServer.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    void parsesOpenEndedRanges() {
+        assertArrayEquals(new long[]{500, 1000}, PackServer.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[]{100, 200}, PackServer.parseRange("bytes=100-199", 1000));
+        assertArrayEquals(new long[]{100, 1000}, PackServer.parseRange("bytes=100-5000", 1000));
+    }
+
+    @Test
+    void rejectsOutOfBoundsRanges() {
+        assertArrayEquals(new long[0], PackServer.parseRange("bytes=1000-", 1000));
+        assertArrayEquals(new long[0], PackServer.parseRange("bytes=2000-3000", 1000));
+    }
+
+    @Test
+    void ignoresRangesItCannotServe() {
+        assertNull(PackServer.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(PackServer.parseRange("items=0-1", 1000));
+        assertNull(PackServer.parseRange("bytes=a-b", 1000));
+        assertNull(PackServer.parseRange("bytes=200-100", 1000));
+    }
+
+    @Test
+    void matchesEntityTags() {
+        assertTrue(PackServer.matches(ETAG, ETAG));
+        assertTrue(PackServer.matches("W/"+ETAG, ETAG));
+        assertTrue(PackServer.matches("\"other\", "+ETAG, ETAG));
+        assertTrue(PackServer.matches("*", ETAG));
+        assertFalse(PackServer.matches("\"other\"", ETAG));
+    }
+
+    @Test
+    void servesTheWholeZip() throws Exception {
+        HttpResponse<byte[]> response = get("/pack.zip");
+        assertEquals(200, response.statusCode());
+        assertEquals(ETAG, response.headers().firstValue("ETag").orElse(null));
+        assertArrayEquals(bytes, response.body());
+        assertEquals(SHA1, new String(get("/pack.zip.sha1").body()));
+        assertEquals(404, get("/other.zip").statusCode());
+    }
+
+    @Test
+    void answersConditionalRequests() throws Exception {
+        assertEquals(304, get("/pack.zip", "If-None-Match", "W/"+ETAG).statusCode());
+        assertEquals(304, get("/pack.zip", "If-None-Match", "*").statusCode());
+        assertEquals(200, get("/pack.zip", "If-None-Match", "\"other\"").statusCode());
+        DateTimeFormatter date = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+        assertEquals(304, get("/pack.zip", "If-Modified-Since", date.format(MODIFIED)).statusCode());
+        assertEquals(200, get("/pack.zip", "If-Modified-Since", date.format(MODIFIED.minusSeconds(60))).statusCode());
+        assertEquals(200, get("/pack.zip", "If-Modified-Since", "yesterday").statusCode());
+    }
+
+    @Test
+    void servesRanges() throws Exception {
+        HttpResponse<byte[]> response = get("/pack.zip", "Range", "bytes=-100", "If-Range", ETAG);
+        assertEquals(206, response.statusCode());
+        assertEquals("bytes 900-999/1000", response.headers().firstValue("Content-Range").orElse(null));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 900, 1000), response.body());
+
+        response = get("/pack.zip", "Range", "bytes=1000-");
+        assertEquals(416, response.statusCode());
+        assertEquals("bytes */1000", response.headers().firstValue("Content-Range").orElse(null));
+    }
+
+    @Test
+    void servesTheWholeZipIfRangeDoesNotMatch() throws Exception {
+        HttpResponse<byte[]> response = get("/pack.zip", "Range", "bytes=0-9", "If-Range", "\"older\"");
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(bytes, response.body());
+    }
+
+    @Test
+    void rebuildsOnPost() throws Exception {
+        assertEquals(405, get("/rebuild").statusCode());
+        HttpResponse<String> response = client.send(request("/rebuild?clean").POST(HttpRequest.BodyPublishers.noBody()).build(),
+                                                    HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertEquals("clean", response.body());
+    }
+
+    private HttpResponse<byte[]> get(String path, String... headers) throws Exception {
+        HttpRequest.Builder request = request(path);
+        for (int i = 0; i < headers.length; i += 2) { request.header(headers[i], headers[i+1]); }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:"+server.getAddress().getPort()+path));
+    }
+}
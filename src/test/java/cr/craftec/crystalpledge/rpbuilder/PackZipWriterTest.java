@@ -0,0 +1,82 @@
+package cr.craftec.crystalpledge.rpbuilder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackZipWriterTest {
+    private static final byte[] TEXT = String.join("\n", Collections.nCopies(100, "{\"parent\": \"item/generated\"}")).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOISE = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2, 3};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesZipsTheJdkCanRead() throws IOException {
+        Path path = directory.resolve("pack.zip");
+        long dosTime = PackZipEntry.toDosTime(LocalDateTime.of(2020, 1, 1, 0, 0));
+        String sha1;
+        try (PackZipWriter writer = new PackZipWriter(Files.newOutputStream(path))) {
+            writer.write("pack.mcmeta", TEXT);
+            PackZipWriter.CompressedEntry stored = PackZipWriter.compress("assets/minecraft/textures/ü.png", NOISE, Deflater.BEST_SPEED, dosTime);
+            assertEquals(PackZipEntry.STORED, stored.getEntry().getMethod());
+            writer.writeRaw(stored.getEntry(), stored.getData());
+            PackZipWriter.CompressedEntry deflated = PackZipWriter.compress("assets/minecraft/models/item/a.json", TEXT, Deflater.BEST_COMPRESSION, dosTime);
+            assertEquals(PackZipEntry.DEFLATED, deflated.getEntry().getMethod());
+            writer.writeRaw(deflated.getEntry(), deflated.getData());
+            writer.writeRaw(deflated.withName("assets/minecraft/models/item/b.json").getEntry(), deflated.getData());
+            sha1 = writer.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            assertEquals(4, zip.size());
+            assertArrayEquals(TEXT, read(zip, "pack.mcmeta"));
+            assertArrayEquals(NOISE, read(zip, "assets/minecraft/textures/ü.png"));
+            assertArrayEquals(TEXT, read(zip, "assets/minecraft/models/item/a.json"));
+            assertArrayEquals(TEXT, read(zip, "assets/minecraft/models/item/b.json"));
+            assertEquals(ZipEntry.STORED, zip.getEntry("assets/minecraft/textures/ü.png").getMethod());
+        }
+        assertEquals(Hashes.sha1(Files.readAllBytes(path)), sha1);
+    }
+
+    @Test
+    void readsBackWhatItWrites() throws IOException {
+        Path path = directory.resolve("pack.zip");
+        try (PackZipWriter writer = new PackZipWriter(Files.newOutputStream(path))) {
+            writer.write("a.json", TEXT);
+            writer.write("b.png", NOISE);
+        }
+        try (PackZipReader reader = new PackZipReader(path)) {
+            assertEquals(2, reader.entries().size());
+            assertArrayEquals(TEXT, reader.read(reader.get("a.json")));
+            assertArrayEquals(NOISE, reader.read(reader.get("b.png")));
+        }
+    }
+
+    @Test
+    void refusesToWriteMoreEntriesThanTheZipFormatHolds() throws IOException {
+        PackZipWriter writer = new PackZipWriter(OutputStream.nullOutputStream());
+        PackZipWriter.CompressedEntry entry = PackZipWriter.compress("a", new byte[0], Deflater.DEFAULT_COMPRESSION, 0);
+        for (int i = 0; i < 0xFFFE; i++) { writer.writeRaw(entry.withName(Integer.toString(i)).getEntry(), entry.getData()); }
+        assertThrows(IOException.class, () -> writer.writeRaw(entry.getEntry(), entry.getData()));
+        writer.close();
+    }
+
+    private static byte[] read(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry, name);
+        return zip.getInputStream(entry).readAllBytes();
+    }
+}